@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic rows shaped like the Cambridge RMS incidents extract.
+ * <p>
+ * People, incidents and addresses are drawn from pools of distinct values. With a skew of 0 every value is equally
+ * likely, larger skews follow a Zipf distribution with that exponent, so a few people, incidents and addresses show up
+ * on most rows like they do in production extracts.
+ */
+public class CambridgeRowGenerator {
+    static final String[] HEADER = {
+            "PersonID", "First", "Middle", "Last", "DOB", "SSN", "Sex", "Race", "Ethnicity", "Role", "Height", "Weight",
+            "MasterPerson.Unit", "MasterPerson.StNo", "MasterPerson.Street", "MasterPerson.City", "State",
+            "IncNum", "RecordType", "NIBRSOffCode", "Offense", "DTReported", "DrugOtherActivity", "GangActivity",
+            "Weapon", "Domestic", "Incidents.Unit", "Incidents.StNo", "Incidents.Street", "Street2", "Incidents.City" };
+
+    private static final String[] FIRST_NAMES = { "JOHN", "MARIA", "JAMES", "LINDA", "ROBERT", "ANA", "MICHAEL",
+            "SARAH", "DAVID", "KIM" };
+    private static final String[] LAST_NAMES  = { "SMITH", "JOHNSON", "GARCIA", "BROWN", "NGUYEN", "SILVA", "MURPHY",
+            "LEE", "PATEL", "OBRIEN" };
+    private static final String[] STREETS     = { "MASSACHUSETTS AVE", "CAMBRIDGE ST", "BROADWAY", "HAMPSHIRE ST",
+            "MAIN ST", "RIVER ST", "PROSPECT ST", "WESTERN AVE", "INMAN ST", "HURON AVE" };
+    private static final String[] CITIES      = { "CAMBRIDGE", "CAMBRIDGE", "CAMBRIDGE", "SOMERVILLE", "BOSTON" };
+    private static final String[] RACES       = { "W", "W", "B", "B,W", "A", "H", "I", "U", "" };
+    private static final String[] ETHNICITIES = { "N", "N", "N", "H", "U", "" };
+    private static final String[] ROLES       = { "SUSPECT", "DEFENDANT", "VICTIM", "WITNESS", "REPORTING PERSON" };
+    private static final String[] OFFENSES    = { "13A", "ASSAULT & BATTERY", "23H", "LARCENY", "290",
+            "VANDALISM", "35A", "DRUG VIOLATION", "220", "BURGLARY" };
+    private static final String[] FLAGS       = { "N", "N", "N", "Y", "" };
+
+    private final Random    random;
+    private final Zipf      people;
+    private final Zipf      incidents;
+    private final Zipf      addresses;
+    private final RowSchema schema;
+
+    /**
+     * @param distinct The number of distinct people, incidents and addresses to draw from.
+     * @param skew The Zipf exponent of the draws, 0 for uniform.
+     */
+    public CambridgeRowGenerator( int distinct, double skew, long seed ) {
+        this.random = new Random( seed );
+        this.people = new Zipf( distinct, skew );
+        this.incidents = new Zipf( distinct, skew );
+        this.addresses = new Zipf( Math.max( 1, distinct / 4 ), skew );
+        this.schema = Cambridge.ROW_LAYOUT.bind( HEADER );
+    }
+
+    public Map<String, String> next() {
+        int person = people.next( random );
+        int incident = incidents.next( random );
+        int personAddress = addresses.next( random );
+        int incidentAddress = addresses.next( random );
+
+        // Person attributes are derived from the person so repeated people have identical columns.
+        Random personRandom = new Random( person );
+        Random incidentRandom = new Random( incident * 31L + 7 );
+        String[] offense = pick( incidentRandom, OFFENSES, 2 );
+
+        return schema.newRow( new String[] {
+                Integer.toString( 100000 + person ),
+                FIRST_NAMES[ personRandom.nextInt( FIRST_NAMES.length ) ],
+                personRandom.nextInt( 3 ) == 0 ? "" : "A",
+                LAST_NAMES[ personRandom.nextInt( LAST_NAMES.length ) ],
+                String.format( "%02d/%02d/%d",
+                        1 + personRandom.nextInt( 12 ),
+                        1 + personRandom.nextInt( 28 ),
+                        1940 + personRandom.nextInt( 60 ) ),
+                personRandom.nextInt( 4 ) == 0 ? "" : String.format( "%09d", personRandom.nextInt( 1_000_000_000 ) ),
+                personRandom.nextBoolean() ? "M" : "F",
+                RACES[ personRandom.nextInt( RACES.length ) ],
+                ETHNICITIES[ personRandom.nextInt( ETHNICITIES.length ) ],
+                ROLES[ random.nextInt( ROLES.length ) ],
+                Integer.toString( 500 + personRandom.nextInt( 112 ) ),
+                Integer.toString( 100 + personRandom.nextInt( 150 ) ),
+                personAddress % 3 == 0 ? "" : Integer.toString( 1 + personAddress % 12 ),
+                Integer.toString( 1 + personAddress % 2000 ),
+                STREETS[ personAddress % STREETS.length ],
+                CITIES[ personAddress % CITIES.length ],
+                "MA",
+                Integer.toString( 18000000 + incident ),
+                incidentRandom.nextInt( 4 ) == 0 ? "ARREST" : "INCIDENT",
+                offense[ 0 ],
+                offense[ 1 ],
+                String.format( "%d/%d/%02d %d:%02d",
+                        1 + incidentRandom.nextInt( 12 ),
+                        1 + incidentRandom.nextInt( 28 ),
+                        10 + incidentRandom.nextInt( 9 ),
+                        incidentRandom.nextInt( 24 ),
+                        incidentRandom.nextInt( 60 ) ),
+                FLAGS[ incidentRandom.nextInt( FLAGS.length ) ],
+                FLAGS[ incidentRandom.nextInt( FLAGS.length ) ],
+                FLAGS[ incidentRandom.nextInt( FLAGS.length ) ],
+                FLAGS[ incidentRandom.nextInt( FLAGS.length ) ],
+                incidentAddress % 4 == 0 ? "" : Integer.toString( 1 + incidentAddress % 8 ),
+                Integer.toString( 1 + incidentAddress % 2000 ),
+                STREETS[ incidentAddress % STREETS.length ],
+                incidentAddress % 5 == 0 ? STREETS[ ( incidentAddress + 1 ) % STREETS.length ] : "",
+                "CAMBRIDGE" } );
+    }
+
+    /**
+     * Generates rows with the derived address columns already filled in, the way the flights see them.
+     */
+    public Map<String, String>[] rows( int count ) {
+        @SuppressWarnings( "unchecked" )
+        Map<String, String>[] rows = new Map[ count ];
+        AddressFields addressFields = new AddressFields();
+        for ( int i = 0; i < count; ++i ) {
+            rows[ i ] = addressFields.apply( next() );
+        }
+        return rows;
+    }
+
+    private static String[] pick( Random random, String[] pairs, int width ) {
+        int index = random.nextInt( pairs.length / width ) * width;
+        return Arrays.copyOfRange( pairs, index, index + width );
+    }
+
+    /**
+     * Draws indices in [0, n) with probability proportional to 1 / (i + 1)^skew.
+     */
+    static class Zipf {
+        private final double[] cumulative;
+
+        Zipf( int n, double skew ) {
+            cumulative = new double[ n ];
+            double sum = 0;
+            for ( int i = 0; i < n; ++i ) {
+                sum += 1.0 / Math.pow( i + 1, skew );
+                cumulative[ i ] = sum;
+            }
+            for ( int i = 0; i < n; ++i ) {
+                cumulative[ i ] /= sum;
+            }
+        }
+
+        int next( Random random ) {
+            int index = Arrays.binarySearch( cumulative, random.nextDouble() );
+            return Math.min( cumulative.length - 1, index < 0 ? -index - 1 : index );
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.adapter.Row;
+import com.openlattice.shuttle.util.Parsers;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per row cost of computing every property of every entity in a flight. The suspects, defendants and others flights
+ * run the same transforms and only write to different entity sets, so a single benchmark covers all three.
+ * {@link #flightPlan} evaluates a real plan, including entity ids and associations: the suspects flight, or the
+ * unified flight that evaluates the role conditions of all three.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class FlightBenchmark {
+    private static final int POOL_SIZE = 1 << 16;
+
+    @Param( { "1000", "100000" } )
+    public int distinct;
+
+    @Param( { "0", "1.2" } )
+    public double skew;
+
+    @Param( { "suspects", "unified" } )
+    public String flight;
+
+    private Row[]             rows;
+    private int               next;
+    private FlightPlan        plan;
+    private FlightPlan.Output output;
+
+    @Setup
+    public void setup( Blackhole blackhole ) {
+        Map<String, String>[] generated = new CambridgeRowGenerator( distinct, skew, 42 ).rows( POOL_SIZE );
+        rows = new Row[ POOL_SIZE ];
+        for ( int i = 0; i < POOL_SIZE; ++i ) {
+            rows[ i ] = new MapRow( generated[ i ] );
+        }
+        plan = "unified".equals( flight ) ? Cambridge.unifiedFlight() : Cambridge.suspectsFlight();
+        output = new FlightPlan.Output() {
+            @Override
+            public void entity( EntityPlan entity, String id, Map<String, Object> properties ) {
+                blackhole.consume( properties );
+            }
+
+            @Override
+            public void association(
+                    AssociationPlan association,
+                    String srcId,
+                    String dstId,
+                    Map<String, Object> properties ) {
+                blackhole.consume( properties );
+            }
+        };
+    }
+
+    @Benchmark
+    public void flightPlan() {
+        next = ( next + 1 ) & ( POOL_SIZE - 1 );
+        plan.evaluate( rows[ next ], output );
+    }
+
+    @Benchmark
+    public void flightEntities( Blackhole blackhole ) {
+        next = ( next + 1 ) & ( POOL_SIZE - 1 );
+        Row row = rows[ next ];
+
+        // people
+        blackhole.consume( row.getAs( "PersonID" ) );
+        blackhole.consume( row.getAs( "First" ) );
+        blackhole.consume( row.getAs( "Middle" ) );
+        blackhole.consume( row.getAs( "Last" ) );
+        blackhole.consume( Cambridge.bdHelper.parse( row.getAs( "DOB" ) ) );
+        blackhole.consume( row.getAs( "SSN" ) );
+        blackhole.consume( row.getAs( "Sex" ) );
+        blackhole.consume( Cambridge.standardRaceList( row ) );
+        blackhole.consume( Cambridge.standardEthnicity( row ) );
+
+        // suspects / defendants / JIpeople
+        blackhole.consume( row.getAs( "Role" ) );
+        blackhole.consume( Parsers.parseInt( row.getAs( "Height" ) ) );
+        blackhole.consume( Parsers.parseInt( row.getAs( "Weight" ) ) );
+
+        // paddress and Iaddress
+        blackhole.consume( row.getAs( AddressFields.PERSON_ADDRESS ) );
+        blackhole.consume( row.getAs( AddressFields.PERSON_STREET ) );
+        blackhole.consume( row.getAs( AddressFields.INCIDENT_ADDRESS ) );
+        blackhole.consume( row.getAs( AddressFields.INCIDENT_STREET ) );
+        blackhole.consume( row.getAs( "MasterPerson.Unit" ) );
+        blackhole.consume( row.getAs( "MasterPerson.City" ) );
+        blackhole.consume( row.getAs( "State" ) );
+
+        // incident
+        blackhole.consume( row.getAs( "IncNum" ) );
+        blackhole.consume( row.getAs( "RecordType" ) );
+        blackhole.consume( row.getAs( "NIBRSOffCode" ) );
+        blackhole.consume( row.getAs( "Offense" ) );
+        blackhole.consume( Cambridge.dtHelper.parse( row.getAs( "DTReported" ) ) );
+        blackhole.consume( row.getAs( "DrugOtherActivity" ) );
+        blackhole.consume( row.getAs( "GangActivity" ) );
+        blackhole.consume( row.getAs( "Weapon" ) );
+        blackhole.consume( row.getAs( "Domestic" ) );
+    }
+}
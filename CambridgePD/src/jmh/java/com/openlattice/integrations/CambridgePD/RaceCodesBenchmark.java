@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.adapter.Row;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the precomputed race and ethnicity decoding against the original split / replaceAll / filter
+ * implementation, which is kept here as the baseline.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RaceCodesBenchmark {
+    private static final String[][] CODES = {
+            { "W", "N" }, { "B", "N" }, { "W", "H" }, { "B,W", "N" }, { "A", "N" }, { "U", "U" }, { "I", "" },
+            { "W,I", "H" } };
+
+    private Row[] rows;
+    private int   next;
+
+    @Setup
+    public void setup() {
+        rows = new Row[ 1024 ];
+        Random random = new Random( 42 );
+        for ( int i = 0; i < rows.length; ++i ) {
+            String[] codes = CODES[ random.nextInt( CODES.length ) ];
+            Map<String, String> row = new HashMap<>();
+            row.put( "Race", codes[ 0 ] );
+            row.put( "Ethnicity", codes[ 1 ] );
+            rows[ i ] = new MapRow( row );
+        }
+    }
+
+    private Row nextRow() {
+        next = ( next + 1 ) & ( rows.length - 1 );
+        return rows[ next ];
+    }
+
+    @Benchmark
+    public void legacy( Blackhole blackhole ) {
+        Row row = nextRow();
+        blackhole.consume( legacyRaceList( row ) );
+        blackhole.consume( legacyEthnicity( row ) );
+    }
+
+    @Benchmark
+    public void decoder( Blackhole blackhole ) {
+        Row row = nextRow();
+        blackhole.consume( Cambridge.standardRaceList( row ) );
+        blackhole.consume( Cambridge.standardEthnicity( row ) );
+    }
+
+    static List legacyRaceList( Row row ) {
+        String sr = row.getAs( "Race" );
+        if ( sr != null ) {
+            List<String> races = Arrays.asList( StringUtils.split( sr, "," ) );
+            Collections.replaceAll( races, "A", "asian" );
+            Collections.replaceAll( races, "W", "white" );
+            Collections.replaceAll( races, "B", "black" );
+            Collections.replaceAll( races, "I", "amindian" );
+            Collections.replaceAll( races, "U", "pacisland" );
+            Collections.replaceAll( races, "", "" );
+            return races.stream().filter( StringUtils::isNotBlank ).collect( Collectors.toList() );
+        }
+        return null;
+    }
+
+    static List legacyEthnicity( Row row ) {
+        String sr = row.getAs( "Ethnicity" );
+        if ( sr != null ) {
+            List<String> races = Arrays.asList( StringUtils.split( sr, "," ) );
+            Collections.replaceAll( races, "N", "nonhispanic" );
+            Collections.replaceAll( races, "H", "hispanic" );
+            Collections.replaceAll( races, "U", "" );
+            Collections.replaceAll( races, "", "" );
+            return races.stream().filter( StringUtils::isNotBlank ).collect( Collectors.toList() );
+        }
+        return null;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.adapter.Row;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per row cost of the individual Cambridge transforms on generated production shaped rows. Run with the gc profiler
+ * (the default for {@code ./gradlew jmh}) to also get the allocation rate per operation.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TransformBenchmark {
+    private static final int POOL_SIZE = 1 << 16;
+
+    @Param( { "1000", "100000" } )
+    public int distinct;
+
+    @Param( { "0", "1.2" } )
+    public double skew;
+
+    private Map<String, String>[] rows;
+    private Row[]                 wrapped;
+    private AddressFields         addressFields;
+    private int                   next;
+
+    @Setup
+    public void setup() {
+        rows = new CambridgeRowGenerator( distinct, skew, 42 ).rows( POOL_SIZE );
+        wrapped = new Row[ POOL_SIZE ];
+        for ( int i = 0; i < POOL_SIZE; ++i ) {
+            wrapped[ i ] = new MapRow( rows[ i ] );
+        }
+        addressFields = new AddressFields();
+    }
+
+    private int nextIndex() {
+        next = ( next + 1 ) & ( POOL_SIZE - 1 );
+        return next;
+    }
+
+    @Benchmark
+    public Object raceList() {
+        return Cambridge.standardRaceList( wrapped[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public Object ethnicity() {
+        return Cambridge.standardEthnicity( wrapped[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public String personStreet() {
+        return Cambridge.getPStreet( wrapped[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public String incidentStreet() {
+        return Cambridge.getIStreet( wrapped[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public String personAddress() {
+        return Cambridge.getPAddress( wrapped[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public String incidentAddress() {
+        return Cambridge.getIAddress( wrapped[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public Map<String, String> derivedAddressFields() {
+        return addressFields.apply( rows[ nextIndex() ] );
+    }
+
+    @Benchmark
+    public Object dtReported() {
+        return Cambridge.dtHelper.parse( rows[ nextIndex() ].get( "DTReported" ) );
+    }
+
+    @Benchmark
+    public Object dateOfBirth() {
+        return Cambridge.bdHelper.parse( rows[ nextIndex() ].get( "DOB" ) );
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.google.common.base.Stopwatch;
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Uploads a flight as a series of batches, each launched through another {@link FlightLauncher}, normally a Shuttle
+ * call, instead of handing it the whole payload at once.
+ * <p>
+ * Rows are collected into a {@link RowBatch}, serialized and gzipped as they are added, until the uncompressed body
+ * reaches the size in bytes chosen by {@link AdaptiveBatchSize}, which grows while batches complete within the target
+ * latency and shrinks when they slow down or fail. Batches are held compressed until they are uploaded. The delegate
+ * receives the {@link RowBatch} itself, so one that sends request bodies can send the compressed body as is; a
+ * Shuttle call reads the decoded rows and serializes the entities it builds from them itself. A failed batch is
+ * launched again up to {@code maxAttempts} times with exponential backoff and full jitter, capped at
+ * {@link #MAX_BACKOFF_MILLIS}; uploads are keyed by entity, so a batch that partially went through is simply written
+ * again. Running out of attempts fails the flight.
+ * <p>
+ * On a run that starts syncs, the first batch runs the flight as defined and starts the syncs of its entity sets that
+ * no earlier flight of the run started; once it is uploaded the flight reports {@link FlightProgress#started()}. Later
+ * batches write into those syncs with {@link FlightPlan#inCurrentSync()}. A run that only sends part of the data, e.g.
+ * an incremental, resumed or partitioned one, must not start syncs, since a new sync would only hold that part and hide
+ * the rest. All of its batches write into the current syncs, and flights report being started right away. Batches are
+ * uploaded on {@code workers} threads shared by all flights. At most {@code maxInFlight} batches of all flights
+ * are held at once, uploading or waiting for a worker; reading a flight's payload blocks until one of them is done.
+ * Batches are acknowledged to the flight's {@link FlightProgress} in order, once they and all batches before them are
+ * uploaded, so checkpoints follow the batches that were actually written.
+ * <p>
+ * Batch latencies are recorded per flight as {@code upload.<flight>} and per entity set of the flight as
+ * {@code upload.entitySet.<entity set>}, along with {@code upload.batches}, {@code upload.bytes} and
+ * {@code upload.compressedBytes} of the uploaded bodies, and {@code upload.retries}.
+ */
+public class AdaptiveBatchLauncher implements FlightLauncher, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger( AdaptiveBatchLauncher.class );
+
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS  = 10_000;
+
+    private final FlightLauncher    delegate;
+    private final AdaptiveBatchSize batchSize;
+    private final int               maxAttempts;
+    private final ExecutorService   uploads;
+    private final Semaphore         inFlight;
+    private final LongAdder         batches;
+    private final LongAdder         bytes;
+    private final LongAdder         compressedBytes;
+    private final LongAdder         retries;
+    private final boolean           startSyncs;
+    private final Set<String>       startedSyncs = new HashSet<>();
+
+    /**
+     * Creates a launcher for a full run, which starts the syncs of the entity sets it writes.
+     */
+    public AdaptiveBatchLauncher(
+            FlightLauncher delegate,
+            AdaptiveBatchSize batchSize,
+            int maxAttempts,
+            int workers,
+            int maxInFlight ) {
+        this( delegate, batchSize, maxAttempts, workers, maxInFlight, true );
+    }
+
+    /**
+     * @param workers The number of batches uploaded at the same time.
+     * @param maxInFlight The maximum number of batches held at once, uploading or waiting for a worker.
+     * @param startSyncs Whether flights start new syncs of their entity sets, which only a full run may do.
+     */
+    public AdaptiveBatchLauncher(
+            FlightLauncher delegate,
+            AdaptiveBatchSize batchSize,
+            int maxAttempts,
+            int workers,
+            int maxInFlight,
+            boolean startSyncs ) {
+        if ( workers <= 0 || maxInFlight <= 0 ) {
+            throw new IllegalArgumentException( "Workers and batches in flight must be positive." );
+        }
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.startSyncs = startSyncs;
+        this.uploads = Executors.newFixedThreadPool( workers, runnable -> {
+            Thread thread = new Thread( runnable, "cambridge-upload" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        this.inFlight = new Semaphore( maxInFlight );
+        PipelineMetrics metrics = PipelineMetrics.get();
+        this.batches = metrics.counter( "upload.batches" );
+        this.bytes = metrics.counter( "upload.bytes" );
+        this.compressedBytes = metrics.counter( "upload.compressedBytes" );
+        this.retries = metrics.counter( "upload.retries" );
+        metrics.gauge( "upload.inFlight", () -> maxInFlight - inFlight.availablePermits() );
+    }
+
+    @Override
+    public void launch( FlightPlan flight, Payload payload, FlightProgress progress ) throws InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        LatencyHistogram latency = PipelineMetrics.get().histogram( "upload." + flight.getName() );
+        FlightPlan opening = opening( flight );
+        FlightPlan continuation = flight.inCurrentSync();
+        if ( opening.isInCurrentSync() ) {
+            // There are no syncs to start, so flights depending on this one can write right away.
+            progress.started();
+        }
+        Deque<PendingBatch> pending = new ArrayDeque<>();
+        RowBatch batch = new RowBatch();
+        int launched = 0;
+        try {
+            try ( Stream<Map<String, String>> rows = payload.getPayload() ) {
+                Iterator<Map<String, String>> it = rows.iterator();
+                while ( it.hasNext() ) {
+                    batch.add( it.next() );
+                    if ( batch.getBytes() >= batchSize.get() ) {
+                        send( launched++ == 0 ? opening : continuation, batch.finish(), latency, progress, pending );
+                        batch = new RowBatch();
+                    }
+                }
+            }
+            if ( !batch.isEmpty() ) {
+                send( launched++ == 0 ? opening : continuation, batch.finish(), latency, progress, pending );
+            }
+            while ( !pending.isEmpty() ) {
+                await( pending.peek().upload );
+                progress.acknowledge( pending.poll().rowsRead );
+            }
+            progress.started();
+            progress.acknowledge( progress.rowsRead() );
+        } finally {
+            for ( PendingBatch unfinished : pending ) {
+                unfinished.upload.cancel( true );
+            }
+        }
+        logger.info( "Uploaded flight {} in {} batches in {}, batch size now {} bytes",
+                flight.getName(),
+                launched,
+                stopwatch,
+                batchSize.get() );
+    }
+
+    /**
+     * @return The flight of the first batch: it starts the syncs no earlier flight of the run started, and only on a run
+     * that starts syncs. Each sync is started once per run.
+     */
+    private synchronized FlightPlan opening( FlightPlan flight ) {
+        if ( !startSyncs ) {
+            return flight.inCurrentSync();
+        }
+        Set<String> alreadyStarted = new HashSet<>( startedSyncs );
+        startedSyncs.addAll( flight.getStartedSyncs() );
+        return flight.inCurrentSync( alreadyStarted );
+    }
+
+    /**
+     * Hands a batch to the upload workers once fewer than {@code maxInFlight} batches are held. A batch that starts
+     * syncs is waited for, since the later ones write into them.
+     */
+    private void send(
+            FlightPlan flight,
+            RowBatch batch,
+            LatencyHistogram latency,
+            FlightProgress progress,
+            Deque<PendingBatch> pending ) throws InterruptedException {
+        long rowsRead = progress.rowsRead();
+        inFlight.acquire();
+        CompletableFuture<Void> upload;
+        try {
+            acknowledgeUploaded( progress, pending );
+            upload = CompletableFuture.runAsync( () -> {
+                try {
+                    upload( flight, batch, latency );
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException( e );
+                }
+            }, uploads );
+        } catch ( RuntimeException e ) {
+            inFlight.release();
+            throw e;
+        }
+        // Released once the batch is done, so a failure is seen before the next batch takes its place.
+        upload.whenComplete( ( ignored, failure ) -> inFlight.release() );
+        pending.add( new PendingBatch( upload, rowsRead ) );
+        if ( !flight.isInCurrentSync() ) {
+            await( upload );
+            progress.started();
+        }
+        acknowledgeUploaded( progress, pending );
+    }
+
+    /**
+     * Acknowledges the leading batches that are uploaded, failing the flight if one of them failed.
+     */
+    private static void acknowledgeUploaded( FlightProgress progress, Deque<PendingBatch> pending )
+            throws InterruptedException {
+        while ( !pending.isEmpty() && pending.peek().upload.isDone() ) {
+            await( pending.peek().upload );
+            progress.acknowledge( pending.poll().rowsRead );
+        }
+    }
+
+    private static void await( Future<Void> upload ) throws InterruptedException {
+        try {
+            upload.get();
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException( "Unable to upload batch.", e.getCause() );
+        }
+    }
+
+    private void upload(
+            FlightPlan flight,
+            RowBatch batch,
+            LatencyHistogram latency ) throws InterruptedException {
+        for ( int attempt = 1; ; ++attempt ) {
+            long start = System.nanoTime();
+            try {
+                delegate.launch( flight, batch, FlightProgress.NONE );
+                long elapsed = System.nanoTime() - start;
+                latency.record( elapsed );
+                flight.recordUpload( elapsed );
+                batchSize.onSuccess( elapsed );
+                batches.increment();
+                bytes.add( batch.getBytes() );
+                compressedBytes.add( batch.getCompressed().length );
+                return;
+            } catch ( RuntimeException e ) {
+                batchSize.onFailure();
+                if ( attempt >= maxAttempts ) {
+                    throw new IllegalStateException( "Batch of " + batch.size() + " rows of flight "
+                            + flight.getName() + " failed after " + attempt + " attempts.", e );
+                }
+                logger.warn( "Batch of {} rows of flight {} failed, attempt {} of {}: {}",
+                        batch.size(),
+                        flight.getName(),
+                        attempt,
+                        maxAttempts,
+                        e.toString() );
+            }
+            long backoff = Math.min( MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min( attempt - 1, 20 ) );
+            retries.increment();
+            TimeUnit.MILLISECONDS.sleep( ThreadLocalRandom.current().nextLong( backoff + 1 ) );
+        }
+    }
+
+    /**
+     * Stops the upload workers, abandoning batches that are still queued.
+     */
+    @Override
+    public void close() {
+        uploads.shutdownNow();
+    }
+
+    private static class PendingBatch {
+        private final Future<Void> upload;
+        private final long         rowsRead;
+
+        PendingBatch( Future<Void> upload, long rowsRead ) {
+            this.upload = upload;
+            this.rowsRead = rowsRead;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes upload batches in bytes from the latency of the batches sent so far.
+ * <p>
+ * While batches come back within the target latency the size grows by a quarter, up to the maximum. A slow batch
+ * shrinks it in proportion to how far it overshot, by at most half, and a failed batch halves it. The size never
+ * drops below the minimum.
+ */
+public class AdaptiveBatchSize {
+    private final int  minBytes;
+    private final int  maxBytes;
+    private final long targetNanos;
+    private       int  bytes;
+
+    public AdaptiveBatchSize( int initialBytes, int minBytes, int maxBytes, long targetLatency, TimeUnit unit ) {
+        if ( minBytes <= 0 || minBytes > maxBytes ) {
+            throw new IllegalArgumentException( "Invalid batch size bounds " + minBytes + ".." + maxBytes );
+        }
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        this.targetNanos = unit.toNanos( targetLatency );
+        this.bytes = clamp( initialBytes );
+    }
+
+    public synchronized int get() {
+        return bytes;
+    }
+
+    public synchronized void onSuccess( long latencyNanos ) {
+        if ( latencyNanos <= targetNanos ) {
+            bytes = clamp( bytes + bytes / 4 );
+        } else {
+            bytes = clamp( (long) ( bytes * Math.max( 0.5, (double) targetNanos / latencyNanos ) ) );
+        }
+    }
+
+    public synchronized void onFailure() {
+        bytes = clamp( bytes / 2 );
+    }
+
+    private int clamp( long size ) {
+        return (int) Math.max( minBytes, Math.min( maxBytes, size ) );
+    }
+}
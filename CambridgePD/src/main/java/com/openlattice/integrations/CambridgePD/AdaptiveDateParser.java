@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.util.Parsers;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Parses a single date column against a list of candidate patterns.
+ * <p>
+ * Instead of always trying the patterns in declaration order, the parser starts with the pattern that last succeeded
+ * for the column, so rows only pay for failed attempts when the format actually changes. Results are memoized per raw
+ * value and failures are counted per pattern.
+ */
+public class AdaptiveDateParser<T> {
+    private static final Logger logger = LoggerFactory.getLogger( AdaptiveDateParser.class );
+
+    private final String                   column;
+    private final String[]                 patterns;
+    private final Function<String, T>[]    parsers;
+    private final LongAdder[]              failures;
+    private final LongAdder                unparseable = new LongAdder();
+    private final BoundedCache<String, T>  cache;
+    private final Function<String, T>      uncached = this::parseUncached;
+    private volatile int                   preferred;
+
+    /**
+     * @param column The column being parsed, only used for reporting.
+     * @param cacheSize The maximum number of distinct raw values to memoize.
+     * @param parserFactory Creates a parser for a single pattern. A parser signals failure by returning null or
+     * throwing.
+     * @param patterns The candidate patterns, in the order they should be tried before any of them has succeeded.
+     */
+    @SuppressWarnings( "unchecked" )
+    public AdaptiveDateParser(
+            String column,
+            int cacheSize,
+            Function<String, Function<String, T>> parserFactory,
+            String... patterns ) {
+        this.column = column;
+        this.patterns = patterns;
+        this.parsers = new Function[ patterns.length ];
+        this.failures = new LongAdder[ patterns.length ];
+        for ( int i = 0; i < patterns.length; ++i ) {
+            parsers[ i ] = parserFactory.apply( patterns[ i ] );
+            failures[ i ] = new LongAdder();
+        }
+        this.cache = new BoundedCache<>( cacheSize );
+    }
+
+    public T parse( Object value ) {
+        String date = Parsers.getAsString( value );
+        if ( StringUtils.isBlank( date ) ) {
+            return null;
+        }
+        return cache.get( date, uncached );
+    }
+
+    private T parseUncached( String date ) {
+        int first = preferred;
+        T parsed = tryPattern( first, date );
+        if ( parsed != null ) {
+            return parsed;
+        }
+
+        for ( int i = 0; i < parsers.length; ++i ) {
+            if ( i != first ) {
+                parsed = tryPattern( i, date );
+                if ( parsed != null ) {
+                    preferred = i;
+                    return parsed;
+                }
+            }
+        }
+
+        unparseable.increment();
+        return null;
+    }
+
+    private T tryPattern( int index, String date ) {
+        T parsed;
+        try {
+            parsed = parsers[ index ].apply( date );
+        } catch ( RuntimeException e ) {
+            parsed = null;
+        }
+        if ( parsed == null ) {
+            failures[ index ].increment();
+        }
+        return parsed;
+    }
+
+    public long getFailures( String pattern ) {
+        for ( int i = 0; i < patterns.length; ++i ) {
+            if ( patterns[ i ].equals( pattern ) ) {
+                return failures[ i ].sum();
+            }
+        }
+        throw new IllegalArgumentException( "Unknown pattern " + pattern );
+    }
+
+    public void logStats() {
+        for ( int i = 0; i < patterns.length; ++i ) {
+            logger.info( "{} pattern '{}' failed {} times.", column, patterns[ i ], failures[ i ].sum() );
+        }
+        logger.info( "{} had {} unparseable values, preferred pattern is '{}'.",
+                column,
+                unparseable.sum(),
+                patterns[ preferred ] );
+    }
+}
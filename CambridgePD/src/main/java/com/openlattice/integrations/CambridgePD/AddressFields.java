@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.util.Parsers;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Computes the person and incident street and full address strings once per row and stores them on the row under
+ * derived column names, so every address entity in every flight reads the same precomputed values instead of
+ * rebuilding them per property. Repeated address strings are interned through a bounded cache.
+ */
+public class AddressFields implements UnaryOperator<Map<String, String>> {
+    public static final String PERSON_STREET    = "derived.PersonStreet";
+    public static final String PERSON_ADDRESS   = "derived.PersonAddress";
+    public static final String INCIDENT_STREET  = "derived.IncidentStreet";
+    public static final String INCIDENT_ADDRESS = "derived.IncidentAddress";
+
+    private static final int MAX_INTERNED = 1 << 16;
+
+    static final RowColumn         PERSON_UNIT             = new RowColumn( "MasterPerson.Unit" );
+    static final RowColumn         PERSON_NUMBER           = new RowColumn( "MasterPerson.StNo" );
+    static final RowColumn         PERSON_STREET_NAME      = new RowColumn( "MasterPerson.Street" );
+    static final RowColumn         PERSON_CITY             = new RowColumn( "MasterPerson.City" );
+    static final RowColumn         PERSON_STATE            = new RowColumn( "State" );
+    static final RowColumn         INCIDENT_UNIT           = new RowColumn( "Incidents.Unit" );
+    static final RowColumn         INCIDENT_NUMBER         = new RowColumn( "Incidents.StNo" );
+    static final RowColumn         INCIDENT_STREET_NAME    = new RowColumn( "Incidents.Street" );
+    static final RowColumn         INCIDENT_STREET2        = new RowColumn( "Street2" );
+    static final RowColumn         INCIDENT_CITY           = new RowColumn( "Incidents.City" );
+    private static final RowColumn PERSON_STREET_COLUMN    = new RowColumn( PERSON_STREET );
+    private static final RowColumn PERSON_ADDRESS_COLUMN   = new RowColumn( PERSON_ADDRESS );
+    private static final RowColumn INCIDENT_STREET_COLUMN  = new RowColumn( INCIDENT_STREET );
+    private static final RowColumn INCIDENT_ADDRESS_COLUMN = new RowColumn( INCIDENT_ADDRESS );
+
+    private final BoundedCache<String, String> interned = new BoundedCache<>( MAX_INTERNED );
+    private final Function<String, String>     identity = Function.identity();
+
+    @Override
+    public Map<String, String> apply( Map<String, String> row ) {
+        String personStreet = intern( street( PERSON_UNIT.get( row ),
+                PERSON_NUMBER.get( row ),
+                PERSON_STREET_NAME.get( row ) ) );
+        String incidentStreet = intern( street( INCIDENT_UNIT.get( row ),
+                INCIDENT_NUMBER.get( row ),
+                INCIDENT_STREET_NAME.get( row ) ) );
+
+        PERSON_STREET_COLUMN.put( row, personStreet );
+        PERSON_ADDRESS_COLUMN.put( row,
+                intern( personAddress( personStreet, PERSON_CITY.get( row ), PERSON_STATE.get( row ) ) ) );
+        INCIDENT_STREET_COLUMN.put( row, incidentStreet );
+        INCIDENT_ADDRESS_COLUMN.put( row,
+                intern( incidentAddress( incidentStreet, INCIDENT_STREET2.get( row ), INCIDENT_CITY.get( row ) ) ) );
+        return row;
+    }
+
+    private String intern( String value ) {
+        return value == null ? null : interned.get( value, identity );
+    }
+
+    public static String street( Object unitValue, Object numberValue, Object streetValue ) {
+        String unit = Parsers.getAsString( unitValue );
+        String number = Parsers.getAsString( numberValue );
+        String street = Parsers.getAsString( streetValue );
+
+        if ( StringUtils.isNotBlank( unit ) && StringUtils.isNotBlank( number ) && StringUtils.isNotBlank( street ) ) {
+            return "#" + unit + ", " + number + " " + street;
+        }
+        return null;
+    }
+
+    public static String personAddress( String street, Object cityValue, Object stateValue ) {
+        if ( StringUtils.isNotBlank( street ) ) {
+            String city = Parsers.getAsString( cityValue );
+            String state = Parsers.getAsString( stateValue );
+            return street + ", " + city + ", " + state;
+        }
+        return null;
+    }
+
+    public static String incidentAddress( String street, Object street2Value, Object cityValue ) {
+        if ( StringUtils.isNotBlank( street ) ) {
+            String street2 = Parsers.getAsString( street2Value );
+            String city = Parsers.getAsString( cityValue );
+            return street + ", " + street2 + ", " + city + ", MA";
+        }
+        return null;
+    }
+}
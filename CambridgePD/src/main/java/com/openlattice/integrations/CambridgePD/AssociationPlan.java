@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An association definition of a {@link FlightPlan}. An association is only created when both of its entities were
+ * created for the row.
+ */
+public class AssociationPlan {
+    private final String             alias;
+    private final String             entitySet;
+    private final boolean            useCurrentSync;
+    private final String             src;
+    private final String             dst;
+    private final List<PropertyPlan> properties;
+
+    AssociationPlan(
+            String alias,
+            String entitySet,
+            boolean useCurrentSync,
+            String src,
+            String dst,
+            List<PropertyPlan> properties ) {
+        this.alias = alias;
+        this.entitySet = entitySet;
+        this.useCurrentSync = useCurrentSync;
+        this.src = src;
+        this.dst = dst;
+        this.properties = Collections.unmodifiableList( properties );
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getEntitySet() {
+        return entitySet;
+    }
+
+    public boolean useCurrentSync() {
+        return useCurrentSync;
+    }
+
+    public String getSrc() {
+        return src;
+    }
+
+    public String getDst() {
+        return dst;
+    }
+
+    public List<PropertyPlan> getProperties() {
+        return properties;
+    }
+
+    AssociationPlan inCurrentSync() {
+        return new AssociationPlan( alias, entitySet, true, src, dst, properties );
+    }
+
+    public static class Builder {
+        private final FlightPlan.Builder flight;
+        private final String             alias;
+        private final List<PropertyPlan> properties = new ArrayList<>();
+        private       String             entitySet;
+        private       boolean            useCurrentSync;
+        private       String             src;
+        private       String             dst;
+
+        Builder( FlightPlan.Builder flight, String alias ) {
+            this.flight = flight;
+            this.alias = alias;
+        }
+
+        public Builder to( String entitySet ) {
+            this.entitySet = entitySet;
+            return this;
+        }
+
+        public Builder useCurrentSync() {
+            this.useCurrentSync = true;
+            return this;
+        }
+
+        public Builder fromEntity( String src ) {
+            this.src = src;
+            return this;
+        }
+
+        public Builder toEntity( String dst ) {
+            this.dst = dst;
+            return this;
+        }
+
+        public Builder addProperty( String fqn, String column ) {
+            properties.add( new PropertyPlan( fqn, column, null ) );
+            return this;
+        }
+
+        public PropertyPlan.Builder<Builder> addProperty( String fqn ) {
+            return new PropertyPlan.Builder<>( fqn, property -> {
+                properties.add( property );
+                return this;
+            } );
+        }
+
+        public FlightPlan.Builder endAssociation() {
+            if ( entitySet == null || src == null || dst == null ) {
+                throw new IllegalStateException( "Association " + alias + " needs an entity set and both entities." );
+            }
+            return flight.add( new AssociationPlan( alias, entitySet, useCurrentSync, src, dst, properties ) );
+        }
+    }
+}
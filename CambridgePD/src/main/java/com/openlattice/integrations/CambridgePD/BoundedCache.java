@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Small concurrent memo table for transforms whose inputs repeat heavily across rows. The table is simply cleared when
+ * it reaches its maximum size, which keeps the hot path to a single hash lookup and the memory use bounded.
+ * Null values are cached as well.
+ */
+public class BoundedCache<K, V> {
+    private static final Object NULL = new Object();
+
+    private final Map<K, Object> values = new ConcurrentHashMap<>();
+    private final int            maxSize;
+
+    public BoundedCache( int maxSize ) {
+        this.maxSize = maxSize;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public V get( K key, Function<? super K, ? extends V> loader ) {
+        Object value = values.get( key );
+        if ( value == null ) {
+            V loaded = loader.apply( key );
+            if ( values.size() >= maxSize ) {
+                values.clear();
+            }
+            values.put( key, loaded == null ? NULL : loaded );
+            return loaded;
+        }
+        return value == NULL ? null : (V) value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
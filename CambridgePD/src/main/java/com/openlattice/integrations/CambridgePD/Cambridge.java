@@ -20,7 +20,7 @@
 
 package com.openlattice.integrations.CambridgePD;
 
-import com.openlattice.shuttle.Flight;
+import com.google.common.collect.ImmutableMap;
 import com.openlattice.shuttle.Shuttle;
 import com.openlattice.shuttle.adapter.Row;
 import com.openlattice.shuttle.dates.DateTimeHelper;
@@ -33,9 +33,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.openlattice.client.RetrofitFactory.Environment;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.DriverManager;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 /**
  * @author Kim Engie &lt;kim@openlattice.com&gt;
@@ -45,35 +51,435 @@ public class Cambridge {
     private static final Logger logger = LoggerFactory.getLogger( Cambridge.class );
     private static final Environment environment = Environment.PRODUCTION;
 
-    private static final DateTimeHelper dtHelper = new DateTimeHelper( TimeZones.America_NewYork, "MM/dd//YY HH:mm", "M/d/YY HH:mm", "M/d/YY H:mm" );
-    private static final DateTimeHelper bdHelper = new DateTimeHelper( TimeZones.America_NewYork, "MM/dd/yyyy" );
-
-
-    public static void main( String[] args ) throws InterruptedException {
+    private static final int DATE_CACHE_SIZE = 1 << 16;
+
+    static final AdaptiveDateParser<Object> dtHelper = new AdaptiveDateParser<>( "DTReported",
+            DATE_CACHE_SIZE,
+            pattern -> new DateTimeHelper( TimeZones.America_NewYork, pattern )::parse,
+            "MM/dd//YY HH:mm", "M/d/YY HH:mm", "M/d/YY H:mm" );
+    static final AdaptiveDateParser<Object> bdHelper = new AdaptiveDateParser<>( "DOB",
+            DATE_CACHE_SIZE,
+            pattern -> new DateTimeHelper( TimeZones.America_NewYork, pattern )::parseDate,
+            "MM/dd/yyyy" );
+
+    private static final CodeListDecoder raceDecoder      = new CodeListDecoder( ImmutableMap.of(
+            "A", "asian",
+            "W", "white",
+            "B", "black",
+            "I", "amindian",
+            "U", "pacisland" ) );
+    private static final CodeListDecoder ethnicityDecoder = new CodeListDecoder( ImmutableMap.of(
+            "N", "nonhispanic",
+            "H", "hispanic",
+            "U", "" ) );
+
+    // The transforms and conditions a flight mapping can refer to by name, see FlightMapping.
+    static final Map<String, PropertyTransform> TRANSFORMS = ImmutableMap.<String, PropertyTransform>builder()
+            .put( "birthDate", Cambridge::birthDate )
+            .put( "dateReported", Cambridge::dateReported )
+            .put( "height", Cambridge::height )
+            .put( "weight", Cambridge::weight )
+            .put( "standardRaceList", Cambridge::standardRaceList )
+            .put( "standardEthnicity", Cambridge::standardEthnicity )
+            .build();
+    static final Map<String, RowPredicate>      PREDICATES = ImmutableMap.of(
+            "isSuspect", Cambridge::isSuspect,
+            "isDefendant", Cambridge::isDefendant,
+            "isOther", Cambridge::isOther,
+            "isNotOther", Cambridge::isNotOther );
+
+    private static final String SUSPECT              = "SUSPECT";
+    private static final String DEFENDANT            = "DEFENDANT";
+    private static final String OTHER                = "OTHER";
+    private static final String UNIFIED              = "UNIFIED";
+    private static final int    ROUTE_QUEUE_CAPACITY = 10000;
+    private static final int    DEDUP_MEMORY_ENTRIES = 1 << 21;
+    private static final int    DEFAULT_LOOKBACK_HOURS = 48;
+    private static final int    DEFAULT_WORKERS        = 2;
+
+    // DOB may be stored as a timestamp, but is parsed as a date like in the CSV export.
+    private static final Map<String, String> JDBC_TEMPORAL_PATTERNS = ImmutableMap.of(
+            "DOB", JdbcPayload.DATE_PATTERN,
+            "DTReported", JdbcPayload.TIMESTAMP_PATTERN );
+
+    private static final RowColumn ROLE        = new RowColumn( "Role" );
+    private static final RowColumn DOB         = new RowColumn( "DOB" );
+    private static final RowColumn DT_REPORTED = new RowColumn( "DTReported" );
+    private static final RowColumn HEIGHT      = new RowColumn( "Height" );
+    private static final RowColumn WEIGHT      = new RowColumn( "Weight" );
+    private static final RowColumn RACE        = new RowColumn( "Race" );
+    private static final RowColumn ETHNICITY   = new RowColumn( "Ethnicity" );
+
+    static final RowLayout ROW_LAYOUT = new RowLayout(
+            Arrays.asList( AddressFields.PERSON_STREET,
+                    AddressFields.PERSON_ADDRESS,
+                    AddressFields.INCIDENT_STREET,
+                    AddressFields.INCIDENT_ADDRESS ),
+            Arrays.asList( "State", "MasterPerson.City", "NIBRSOffCode", "Offense", "RecordType", "Sex", "Role" ) );
+
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 50000;
+    private static final int DEFAULT_CHUNK_MB            = 4;
+    private static final int DEFAULT_BATCH_KB            = 512;
+    private static final int MIN_BATCH_KB                = 16;
+    private static final int DEFAULT_MAX_BATCH_MB        = 16;
+    private static final int DEFAULT_TARGET_LATENCY_MS   = 2000;
+    private static final int DEFAULT_UPLOAD_ATTEMPTS     = 5;
+    private static final int DEFAULT_METRICS_INTERVAL_S  = 60;
+    private static final int DEFAULT_SORT_MEMORY_MB      = 256;
+
+    // Columns each entity definition reads, used to recognize rows that would only resend known entities.
+    private static final String[] PERSON_COLUMNS           = { "PersonID", "First", "Middle", "Last", "DOB", "SSN", "Sex",
+            "Race", "Ethnicity" };
+    private static final String[] JUSTICE_PERSON_COLUMNS   = { "PersonID", "Role", "Height", "Weight" };
+    private static final String[] PERSON_ADDRESS_COLUMNS   = { "MasterPerson.Unit", "MasterPerson.StNo",
+            "MasterPerson.Street", "MasterPerson.City", "State" };
+    private static final String[] INCIDENT_ADDRESS_COLUMNS = { "Incidents.Unit", "Incidents.StNo", "Incidents.Street",
+            "Street2", "Incidents.City", "MasterPerson.Unit", "MasterPerson.City", "State" };
+    private static final String[] INCIDENT_COLUMNS         = { "IncNum", "RecordType", "NIBRSOffCode", "Offense",
+            "DTReported", "DrugOtherActivity", "GangActivity", "Weapon", "Domestic" };
+
+
+    public static void main( String[] args ) throws InterruptedException, IOException {
         /*
-         * It's worth noting that we are omitting validation such as making sure enough args were passed in, checking
-         * existence of the file, and making sure authentication was successful. A failure in one of these cases
-         * will cause the program to exit with an exception.
+         * It's worth noting that we are omitting validation such as checking existence of the file, and making sure
+         * authentication was successful. A failure in one of these cases will cause the program to exit with an
+         * exception.
          */
 
-        final String incidentsPath = args[ 0 ];
-        final String jwtToken = args[ 1 ];
+        final CambridgeOptions options = CambridgeOptions.parse( args );
+        final String jwtToken = options.getJwtToken();
+        final Map<String, FlightPlan> flights = flights( options );
+        final PipelineMetrics metrics = PipelineMetrics.get();
+        metrics.startReporting( options.getInt( "metrics-interval-s", DEFAULT_METRICS_INTERVAL_S ), TimeUnit.SECONDS );
+
+        // Every worker of a partitioned run reads the whole input, keeps its own rows and its own state files.
+        final Partitioner partitioner = partitioner( options );
+        Watermark watermark = null;
+        LongAdder rowsRead = metrics.counter( "rows.read" );
+        Stream<Map<String, String>> incidents = incidentsPayload( options ).getPayload()
+                .peek( row -> rowsRead.increment() );
+        if ( partitioner.isPartitioned() ) {
+            logger.info( "Processing partition {} of {} by {}",
+                    partitioner.getPartition(),
+                    partitioner.getPartitions(),
+                    partitioner.getKeyColumn() );
+            incidents = incidents.filter( partitioner );
+        }
+        if ( options.contains( "watermark" ) ) {
+            watermark = Watermark.load( partitioner.file( Paths.get( options.get( "watermark", null ) ) ),
+                    options.getInt( "lookback-hours", DEFAULT_LOOKBACK_HOURS ),
+                    options.has( "full-resync" ) );
+            incidents = incidents.filter( watermark );
+        }
+        Payload iPayload = new SimplePayload( incidents.map( new AddressFields() ) );
+        if ( options.contains( "sort-by" ) ) {
+            iPayload = sortedPayload( options, iPayload );
+        }
+
+        Checkpoint checkpoint = loadCheckpoint( options, partitioner );
+        ChangeIndex changeIndex = null;
+        if ( options.contains( "change-index" ) ) {
+            changeIndex = ChangeIndex.open( partitioner.file( Paths.get( options.get( "change-index", null ) ) ),
+                    options.has( "full-resync" ) );
+        }
+        EntityDedupCache dedupCache = new EntityDedupCache( DEDUP_MEMORY_ENTRIES );
+
+        LocalSink sink = null;
+        AdaptiveBatchLauncher uploader = null;
+        FlightLauncher launcher;
+        if ( options.contains( "sink" ) ) {
+            Path sinkDir = partitioner.file( Paths.get( options.get( "sink", null ) ) );
+            sink = new LocalSink( sinkDir );
+            launcher = sink;
+            logger.info( "Dry run, writing flight output to {}", sinkDir );
+        } else if ( options.contains( "ingest-url" ) ) {
+            String ingestUrl = options.get( "ingest-url", null );
+            uploader = batchLauncher( options, new HttpIngestLauncher( ingestUrl ), false );
+            launcher = uploader;
+            logger.info( "Posting batches to {} instead of uploading them", ingestUrl );
+        } else {
+            logger.info( "Using the following idToken: Bearer {}", jwtToken );
+            boolean startSyncs = startsSyncs( partitioner, watermark, changeIndex, checkpoint );
+            if ( !startSyncs ) {
+                logger.info( "Only sending part of the data, writing into the current syncs of all entity sets." );
+            }
+            uploader = batchLauncher( options,
+                    new ShuttleLauncher( () -> new Shuttle( environment, jwtToken ) ),
+                    startSyncs );
+            launcher = uploader;
+        }
+
+        FlightScheduler scheduler = new FlightScheduler( launcher );
+        if ( options.has( "unified-flight" ) ) {
+            schedule( scheduler, checkpoint, UNIFIED, flight( flights, UNIFIED ),
+                    flightPayload( iPayload, checkpoint, changeIndex, dedupCache, UNIFIED, unifiedDedupKeys() ) );
+        } else {
+            scheduleSplitFlights( scheduler, flights, iPayload, checkpoint, changeIndex, dedupCache );
+        }
+        if ( checkpoint != null ) {
+            scheduler.progress( checkpoint::progress );
+            scheduler.onCompleted( checkpoint::markComplete );
+        }
+        try {
+            scheduler.run();
+        } finally {
+            if ( sink != null ) {
+                sink.close();
+            }
+            if ( uploader != null ) {
+                uploader.close();
+            }
+        }
+
+        // A dry run uploads nothing, so it must not move the watermark or the change index either.
+        if ( watermark != null && sink == null ) {
+            watermark.save();
+        }
+        if ( changeIndex != null ) {
+            if ( sink == null ) {
+                changeIndex.commit();
+            }
+            changeIndex.close();
+        }
+        if ( checkpoint != null ) {
+            // Partitions keep their checkpoint until CambridgeMerge has seen all of them complete.
+            if ( partitioner.isPartitioned() ) {
+                checkpoint.markRunComplete();
+            } else {
+                checkpoint.clear();
+            }
+        }
+        dedupCache.logStats();
+        dtHelper.logStats();
+        bdHelper.logStats();
+        metrics.stopReporting();
+        if ( options.contains( "metrics" ) ) {
+            metrics.writeJson( partitioner.file( Paths.get( options.get( "metrics", null ) ) ) );
+        }
+    }
 
-        SimplePayload iPayload = new SimplePayload( incidentsPath );
+    /**
+     * Runs the suspects, defendants and others flights on their own routes of the input.
+     */
+    static void scheduleSplitFlights(
+            FlightScheduler scheduler,
+            Map<String, FlightPlan> flights,
+            Payload incidents,
+            Checkpoint checkpoint,
+            ChangeIndex changeIndex,
+            EntityDedupCache dedupCache ) {
+        RoleRouter router = new RoleRouter( incidents,
+                Cambridge::routeForRole,
+                Arrays.asList( SUSPECT, DEFENDANT, OTHER ),
+                ROUTE_QUEUE_CAPACITY );
+        Payload suspectsPayload = flightPayload( router.route( SUSPECT ), checkpoint, changeIndex, dedupCache, SUSPECT,
+                dedupKeys( "CambridgePeople_1", "CambridgeSuspects", "CambridgeAppearIn" ) );
+        Payload defendantsPayload = flightPayload( router.route( DEFENDANT ), checkpoint, changeIndex, dedupCache,
+                DEFENDANT, dedupKeys( "CambridgePeople_1", "CambridgeSuspects", "CambridgeArrestedIn" ) );
+        Payload othersPayload = flightPayload( router.route( OTHER ), checkpoint, changeIndex, dedupCache, OTHER,
+                dedupKeys( "CambridgePeople_2", "CambridgeJusticePeople", "CambridgeAppearIn" ) );
+
+        // The suspects flight starts the syncs for the entity sets the other two flights write with useCurrentSync(), so
+        // those only wait for it to start writing. The routes of flights that already completed are dropped.
+        if ( !schedule( scheduler, checkpoint, SUSPECT, flight( flights, SUSPECT ), suspectsPayload ) ) {
+            router.discard( SUSPECT );
+        }
+        if ( !schedule( scheduler, checkpoint, DEFENDANT, flight( flights, DEFENDANT ), defendantsPayload, SUSPECT ) ) {
+            router.discard( DEFENDANT );
+        }
+        if ( !schedule( scheduler, checkpoint, OTHER, flight( flights, OTHER ), othersPayload, SUSPECT ) ) {
+            router.discard( OTHER );
+        }
+    }
 
-        List<Map<String, String>> fp = iPayload.getPayload().collect( Collectors.toList() );
-        Payload suspectsPayload = new SimplePayload( fp.stream()
-                .filter( row -> row.get( "Role" ).equals( "SUSPECT" ) ));
-        Payload defendantsPayload = new SimplePayload( fp.stream()
-                .filter( row -> row.get( "Role" ).equals( "DEFENDANT" )));
-        Payload othersPayload = new SimplePayload( fp.stream()
-                .filter( row -> !(row.get( "Role" ).equals( "SUSPECT" )) && !(row.get( "Role" ).equals( "DEFENDANT" ))));
+    /**
+     * All three flights in one: every row creates the incident and address entities once, and the person entities and
+     * associations of its role. Suspects and defendants both go to {@code CambridgeSuspects}, but as different
+     * entities, so that only defendants are {@code CambridgeArrestedIn} their incident. Uploaded through
+     * {@link ShuttleLauncher}, which leaves out the entities of the other roles.
+     */
+    static FlightPlan unifiedFlight() {
+        //@formatter:off
+        return FlightPlan.newFlight( UNIFIED )
+                .createEntities()
 
+                .addEntity( "people" )
+                    .to( "CambridgePeople_1" )
+                    .when( Cambridge::isNotOther )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                    .addProperty( "nc.PersonGivenName", "First" )
+                    .addProperty( "nc.PersonMiddleName", "Middle" )
+                    .addProperty( "nc.PersonSurName", "Last" )
+                    .addProperty( "nc.PersonBirthDate" )
+                        .value( Cambridge::birthDate ).ok()
+                    .addProperty( "nc.SSN", "SSN" )
+                    .addProperty( "nc.PersonSex", "Sex" )
+                    .addProperty( "nc.PersonRace" )
+                        .value( Cambridge::standardRaceList  ).ok()
+                    .addProperty( "nc.PersonEthnicity" )
+                        .value( Cambridge::standardEthnicity ).ok()
+                .endEntity()
+
+                .addEntity( "people3" )
+                    .to( "CambridgePeople_2" )
+                    .when( Cambridge::isOther )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                    .addProperty( "nc.PersonGivenName", "First" )
+                    .addProperty( "nc.PersonMiddleName", "Middle" )
+                    .addProperty( "nc.PersonSurName", "Last" )
+                    .addProperty( "nc.PersonBirthDate" )
+                        .value( Cambridge::birthDate ).ok()
+                    .addProperty( "nc.SSN", "SSN" )
+                    .addProperty( "nc.PersonSex", "Sex" )
+                    .addProperty( "nc.PersonRace" )
+                        .value( Cambridge::standardRaceList  ).ok()
+                    .addProperty( "nc.PersonEthnicity" )
+                        .value( Cambridge::standardEthnicity ).ok()
+                .endEntity()
+
+                .addEntity( "suspects" )
+                    .to( "CambridgeSuspects" )
+                    .when( Cambridge::isSuspect )
+                    .addProperty( "criminaljustice.personid", "PersonID" )
+                    .addProperty( "criminaljustice.persontype", "Role" )
+                    .addProperty( "nc.PersonHeightMeasure" )
+                        .value( Cambridge::height ).ok()
+                    .addProperty( "nc.PersonWeightMeasure" )
+                        .value( Cambridge::weight ).ok()
+                .endEntity()
+
+                .addEntity( "defendants" )
+                    .to( "CambridgeSuspects" )
+                    .useCurrentSync()
+                    .when( Cambridge::isDefendant )
+                    .addProperty( "criminaljustice.personid", "PersonID" )
+                    .addProperty( "criminaljustice.persontype", "Role" )
+                    .addProperty( "nc.PersonHeightMeasure" )
+                        .value( Cambridge::height ).ok()
+                    .addProperty( "nc.PersonWeightMeasure" )
+                        .value( Cambridge::weight ).ok()
+                .endEntity()
+
+                .addEntity( "JIpeople" )
+                    .to( "CambridgeJusticePeople" )
+                    .when( Cambridge::isOther )
+                    .addProperty( "criminaljustice.personid", "PersonID" )
+                    .addProperty( "criminaljustice.persontype", "Role" )
+                    .addProperty( "nc.PersonHeightMeasure" )
+                        .value( Cambridge::height ).ok()
+                    .addProperty( "nc.PersonWeightMeasure" )
+                        .value( Cambridge::weight ).ok()
+                .endEntity()
+
+                .addEntity( "paddress" )
+                    .to( "CambridgeAddresses" )
+                    .addProperty( "location.Address", AddressFields.PERSON_ADDRESS )
+                    .addProperty( "location.street", AddressFields.PERSON_STREET )
+                    .addProperty( "location.apartment", "MasterPerson.Unit" )
+                    .addProperty( "location.city", "MasterPerson.City" )
+                    .addProperty( "location.state", "State" )
+                .endEntity()
+
+                .addEntity( "Iaddress" )
+                    .to( "CambridgeAddresses" )
+                    .useCurrentSync()
+                    .addProperty( "location.Address", AddressFields.INCIDENT_ADDRESS )
+                    .addProperty( "location.street", AddressFields.INCIDENT_STREET )
+                    .addProperty( "location.apartment", "MasterPerson.Unit" )
+                    .addProperty( "location.city", "MasterPerson.City" )
+                    .addProperty( "location.state", "State" )
+                .endEntity()
+
+                .addEntity( "incident" )
+                    .to( "CambridgePDIncidents" )
+                    .addProperty( "criminaljustice.incidentid", "IncNum" )
+                    .addProperty( "ol.recordtype", "RecordType" )
+                    .addProperty( "criminaljustice.nibrs", "NIBRSOffCode" )
+                    .addProperty( "criminaljustice.localstatute", "Offense" )
+                    .addProperty( "ol.datetime_reported" )
+                        .value( Cambridge::dateReported ).ok()
+                    .addProperty( "publicsafety.drugspresent", "DrugOtherActivity" )
+                    .addProperty( "ol.gangactivity", "GangActivity" )
+                    .addProperty( "publicsafety.weaponspresent", "Weapon" )
+                    .addProperty( "ol.domesticviolenceflag", "Domestic" )
+                .endEntity()
+
+                .endEntities()
+                .createAssociations()
+
+                .addAssociation( "becomes" )
+                    .to( "CambridgeBecomes" )
+                    .fromEntity( "people" )
+                    .toEntity( "suspects" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                .endAssociation()
+                .addAssociation( "becomes2" )
+                    .to( "CambridgeBecomes" )
+                    .useCurrentSync()
+                    .fromEntity( "people" )
+                    .toEntity( "defendants" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                .endAssociation()
+                .addAssociation( "becomes3" )
+                    .to( "CambridgeBecomes" )
+                    .useCurrentSync()
+                    .fromEntity( "people3" )
+                    .toEntity( "JIpeople" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                .endAssociation()
+                .addAssociation( "appearsin" )
+                    .to( "CambridgeAppearIn" )
+                    .fromEntity( "suspects" )
+                    .toEntity( "incident" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                    .addProperty( "general.stringid", "IncNum" )
+                .endAssociation()
+                .addAssociation( "appearin2" )
+                    .to( "CambridgeAppearIn" )
+                    .useCurrentSync()
+                    .fromEntity( "JIpeople" )
+                    .toEntity( "incident" )
+                    .addProperty( "general.stringid", "PersonID" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                .endAssociation()
+                .addAssociation( "arrestedin" )
+                    .to( "CambridgeArrestedIn" )
+                    .fromEntity( "defendants" )
+                    .toEntity( "incident" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                    .addProperty( "arrestedin.id", "IncNum" )
+                .endAssociation()
+                .addAssociation( "locatedat" )
+                    .to( "CambridgeLocatedAt" )
+                    .fromEntity( "people" )
+                    .toEntity( "paddress" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                .endAssociation()
+                .addAssociation( "locatedat3" )
+                    .to( "CambridgeLocatedAt" )
+                    .useCurrentSync()
+                    .fromEntity( "people3" )
+                    .toEntity( "paddress" )
+                    .addProperty( "nc.SubjectIdentification", "PersonID" )
+                .endAssociation()
+                .addAssociation( "occurredat" )
+                    .to( "CambridgeOccurredAt" )
+                    .fromEntity( "incident" )
+                    .toEntity( "Iaddress" )
+                    .addProperty( "general.stringid", "IncNum" )
+                .endAssociation()
 
-                logger.info( "Using the following idToken: Bearer {}", jwtToken );
+                .endAssociations()
+                .done();
+        //@formatter:on
+    }
 
-                //@formatter:off
-        Flight suspectsflight = Flight.newFlight()
+    /**
+     * People, incidents and addresses of suspects. Owns the syncs of the entity sets shared with the other flights.
+     */
+    static FlightPlan suspectsFlight() {
+        //@formatter:off
+        return FlightPlan.newFlight( SUSPECT )
                 .createEntities()
 
                 .addEntity( "people" )
@@ -83,7 +489,7 @@ public class Cambridge {
                     .addProperty( "nc.PersonMiddleName", "Middle" )
                     .addProperty( "nc.PersonSurName", "Last" )
                     .addProperty( "nc.PersonBirthDate" )
-                        .value( row -> bdHelper.parseDate( row.getAs( "DOB" ) ) ).ok()
+                        .value( Cambridge::birthDate ).ok()
                     .addProperty( "nc.SSN", "SSN" )
                     .addProperty( "nc.PersonSex", "Sex" )
                     .addProperty( "nc.PersonRace" )
@@ -97,17 +503,15 @@ public class Cambridge {
                     .addProperty( "criminaljustice.personid", "PersonID" )
                     .addProperty( "criminaljustice.persontype", "Role" )
                     .addProperty( "nc.PersonHeightMeasure")
-                        .value( row -> Parsers.parseInt( row.getAs ("Height") ) ).ok()
+                        .value( Cambridge::height ).ok()
                     .addProperty( "nc.PersonWeightMeasure" )
-                        .value( row -> Parsers.parseInt( row.getAs ("Weight") ) ).ok()
+                        .value( Cambridge::weight ).ok()
                 .endEntity()
 
                 .addEntity( "paddress" )
                     .to("CambridgeAddresses")
-                    .addProperty( "location.Address" )
-                        .value( Cambridge::getPAddress ).ok()
-                    .addProperty( "location.street" )
-                        .value( Cambridge::getPStreet ).ok()
+                    .addProperty( "location.Address", AddressFields.PERSON_ADDRESS )
+                    .addProperty( "location.street", AddressFields.PERSON_STREET )
                     .addProperty( "location.apartment", "MasterPerson.Unit" )
                     .addProperty( "location.city", "MasterPerson.City" )
                     .addProperty( "location.state", "State" )
@@ -116,10 +520,8 @@ public class Cambridge {
                 .addEntity( "Iaddress" )
                     .to("CambridgeAddresses")
                     .useCurrentSync()
-                    .addProperty( "location.Address" )
-                        .value( Cambridge::getIAddress ).ok()
-                    .addProperty( "location.street" )
-                        .value( Cambridge::getIStreet ).ok()
+                    .addProperty( "location.Address", AddressFields.INCIDENT_ADDRESS )
+                    .addProperty( "location.street", AddressFields.INCIDENT_STREET )
                     .addProperty( "location.apartment", "MasterPerson.Unit" )
                     .addProperty( "location.city", "MasterPerson.City" )
                     .addProperty( "location.state", "State" )
@@ -132,7 +534,7 @@ public class Cambridge {
                     .addProperty( "criminaljustice.nibrs", "NIBRSOffCode" )
                     .addProperty( "criminaljustice.localstatute", "Offense" )
                     .addProperty( "ol.datetime_reported" )
-                        .value( row -> dtHelper.parse( row.getAs ("DTReported")) ).ok()  //LocalDate.now() ).ok()
+                        .value( Cambridge::dateReported ).ok()  //LocalDate.now() ).ok()
                     .addProperty( "publicsafety.drugspresent", "DrugOtherActivity" )
                     .addProperty( "ol.gangactivity", "GangActivity" )
                     .addProperty( "publicsafety.weaponspresent", "Weapon" )
@@ -170,9 +572,15 @@ public class Cambridge {
 
                 .endAssociations()
                 .done();
+        //@formatter:on
+    }
 
-
-        Flight defendantsflight = Flight.newFlight()
+    /**
+     * Defendants, arrested in their incidents. Writes into the syncs started by {@link #suspectsFlight()}.
+     */
+    static FlightPlan defendantsFlight() {
+        //@formatter:off
+        return FlightPlan.newFlight( DEFENDANT )
                 .createEntities()
 
                 .addEntity( "people2" )
@@ -183,7 +591,7 @@ public class Cambridge {
                     .addProperty( "nc.PersonMiddleName", "Middle" )
                     .addProperty( "nc.PersonSurName", "Last" )
                     .addProperty( "nc.PersonBirthDate" )
-                        .value( row -> bdHelper.parseDate( row.getAs( "DOB" ) ) ).ok()
+                        .value( Cambridge::birthDate ).ok()
                     .addProperty( "nc.SSN", "SSN" )
                     .addProperty( "nc.PersonSex", "Sex" )
                     .addProperty( "nc.PersonRace" )
@@ -198,18 +606,16 @@ public class Cambridge {
                     .addProperty( "criminaljustice.personid", "PersonID" )
                     .addProperty( "criminaljustice.persontype", "Role" )
                     .addProperty( "nc.PersonHeightMeasure")
-                        .value( row -> Parsers.parseInt( row.getAs ("Height") ) ).ok()
+                        .value( Cambridge::height ).ok()
                     .addProperty( "nc.PersonWeightMeasure" )
-                        .value( row -> Parsers.parseInt( row.getAs ("Weight") ) ).ok()
+                        .value( Cambridge::weight ).ok()
                 .endEntity()
 
                 .addEntity( "paddress2" )
                     .to("CambridgeAddresses")
                     .useCurrentSync()
-                    .addProperty( "location.Address" )
-                        .value( Cambridge::getPAddress ).ok()
-                    .addProperty( "location.street" )
-                        .value( Cambridge::getPStreet ).ok()
+                    .addProperty( "location.Address", AddressFields.PERSON_ADDRESS )
+                    .addProperty( "location.street", AddressFields.PERSON_STREET )
                     .addProperty( "location.apartment", "MasterPerson.Unit" )
                     .addProperty( "location.city", "MasterPerson.City" )
                     .addProperty( "location.state", "State" )
@@ -218,10 +624,8 @@ public class Cambridge {
                 .addEntity( "Iaddress2" )
                     .to("CambridgeAddresses")
                     .useCurrentSync()
-                    .addProperty( "location.Address" )
-                        .value( Cambridge::getIAddress ).ok()
-                    .addProperty( "location.street" )
-                        .value( Cambridge::getIStreet ).ok()
+                    .addProperty( "location.Address", AddressFields.INCIDENT_ADDRESS )
+                    .addProperty( "location.street", AddressFields.INCIDENT_STREET )
                     .addProperty( "location.apartment", "MasterPerson.Unit" )
                     .addProperty( "location.city", "MasterPerson.City" )
                     .addProperty( "location.state", "State" )
@@ -235,7 +639,7 @@ public class Cambridge {
                     .addProperty( "criminaljustice.nibrs", "NIBRSOffCode" )
                     .addProperty( "criminaljustice.localstatute", "Offense" )
                     .addProperty( "ol.datetime_reported" )
-                        .value( row -> dtHelper.parse( row.getAs ("DTReported")) ).ok()  //LocalDate.now() ).ok()
+                        .value( Cambridge::dateReported ).ok()  //LocalDate.now() ).ok()
                     .addProperty( "publicsafety.drugspresent", "DrugOtherActivity" )
                     .addProperty( "ol.gangactivity", "GangActivity" )
                     .addProperty( "publicsafety.weaponspresent", "Weapon" )
@@ -276,8 +680,15 @@ public class Cambridge {
 
                 .endAssociations()
                 .done();
+        //@formatter:on
+    }
 
-        Flight othersflight = Flight.newFlight()
+    /**
+     * Everyone else involved in an incident, as justice system people.
+     */
+    static FlightPlan othersFlight() {
+        //@formatter:off
+        return FlightPlan.newFlight( OTHER )
                 .createEntities()
 
                 .addEntity( "people3" )
@@ -287,7 +698,7 @@ public class Cambridge {
                     .addProperty( "nc.PersonMiddleName", "Middle" )
                     .addProperty( "nc.PersonSurName", "Last" )
                     .addProperty( "nc.PersonBirthDate" )
-                        .value( row -> bdHelper.parseDate( row.getAs( "DOB" ) ) ).ok()
+                        .value( Cambridge::birthDate ).ok()
                     .addProperty( "nc.SSN", "SSN" )
                     .addProperty( "nc.PersonSex", "Sex" )
                     .addProperty( "nc.PersonRace" )
@@ -301,18 +712,16 @@ public class Cambridge {
                     .addProperty( "criminaljustice.personid", "PersonID" )
                     .addProperty( "criminaljustice.persontype", "Role" )
                     .addProperty( "nc.PersonHeightMeasure")
-                        .value( row -> Parsers.parseInt( row.getAs ("Height") ) ).ok()
+                        .value( Cambridge::height ).ok()
                     .addProperty( "nc.PersonWeightMeasure")
-                        .value( row -> Parsers.parseInt( row.getAs ("Weight") ) ).ok()
+                        .value( Cambridge::weight ).ok()
                 .endEntity()
 
                 .addEntity( "paddress3" )
                     .to("CambridgeAddresses")
                     .useCurrentSync()
-                    .addProperty( "location.Address" )
-                        .value( Cambridge::getPAddress).ok()
-                    .addProperty( "location.street" )
-                        .value( Cambridge::getPStreet ).ok()
+                    .addProperty( "location.Address", AddressFields.PERSON_ADDRESS )
+                    .addProperty( "location.street", AddressFields.PERSON_STREET )
                     .addProperty( "location.apartment", "MasterPerson.Unit" )
                     .addProperty( "location.city", "MasterPerson.City" )
                     .addProperty( "location.state", "State" )
@@ -321,10 +730,8 @@ public class Cambridge {
                 .addEntity( "Iaddress3" )
                     .to("CambridgeAddresses")
                     .useCurrentSync()
-                    .addProperty( "location.Address" )
-                        .value( Cambridge::getIAddress).ok()
-                    .addProperty( "location.street" )
-                        .value( Cambridge::getIStreet ).ok()
+                    .addProperty( "location.Address", AddressFields.INCIDENT_ADDRESS )
+                    .addProperty( "location.street", AddressFields.INCIDENT_STREET )
                     .addProperty( "location.apartment", "MasterPerson.Unit" )
                     .addProperty( "location.city", "MasterPerson.City" )
                     .addProperty( "location.state", "State" )
@@ -338,7 +745,7 @@ public class Cambridge {
                     .addProperty( "criminaljustice.nibrs", "NIBRSOffCode" )
                     .addProperty( "criminaljustice.localstatute", "Offense" )
                     .addProperty( "ol.datetime_reported" )
-                        .value( row -> dtHelper.parse( row.getAs( "DTReported" ) ) ).ok()
+                        .value( Cambridge::dateReported ).ok()
                     .addProperty( "publicsafety.drugspresent", "DrugOtherActivity" )
                     .addProperty( "ol.gangactivity", "GangActivity" )
                     .addProperty( "publicsafety.weaponspresent", "Weapon" )
@@ -380,137 +787,272 @@ public class Cambridge {
 
                 .endAssociations()
                 .done();
-                //@formatter:on
+        //@formatter:on
+    }
+
+    /**
+     * The flights by name: from the {@code --mapping} file if one is given, otherwise the ones defined here.
+     */
+    static Map<String, FlightPlan> flights( CambridgeOptions options ) throws IOException {
+        if ( !options.contains( "mapping" ) ) {
+            return ImmutableMap.of( UNIFIED, unifiedFlight(),
+                    SUSPECT, suspectsFlight(),
+                    DEFENDANT, defendantsFlight(),
+                    OTHER, othersFlight() );
+        }
+        return FlightMapping.load( Paths.get( options.get( "mapping", null ) ), TRANSFORMS, PREDICATES );
+    }
+
+    static FlightPlan flight( Map<String, FlightPlan> flights, String name ) {
+        FlightPlan flight = flights.get( name );
+        if ( flight == null ) {
+            throw new IllegalArgumentException( "There is no flight named " + name + "." );
+        }
+        return flight;
+    }
 
+    /**
+     * Only a full run starts new syncs of the entity sets it writes. A run that sends part of the data, the rows of a
+     * partition, past the watermark, changed since the last run or left over by a failed run, writes into the current
+     * syncs, so the data already in them stays visible.
+     */
+    static boolean startsSyncs(
+            Partitioner partitioner,
+            Watermark watermark,
+            ChangeIndex changeIndex,
+            Checkpoint checkpoint ) {
+        return !partitioner.isPartitioned()
+                && ( watermark == null || !watermark.isIncremental() )
+                && ( changeIndex == null || !changeIndex.isIncremental() )
+                && ( checkpoint == null || !checkpoint.isResuming() );
+    }
 
-        Shuttle shuttle = new Shuttle( environment, jwtToken );
-        Map<Flight, Payload> flights = new HashMap<>( 1 );
-        flights.put( suspectsflight, suspectsPayload );
-        flights.put( defendantsflight, defendantsPayload );
-        flights.put( othersflight, othersPayload );
+    /**
+     * Uploads flights through Shuttle in adaptively sized batches, each of them one Shuttle call, on {@code --workers}
+     * threads with at most {@code --max-in-flight} batches held at once.
+     */
+    static AdaptiveBatchLauncher batchLauncher( CambridgeOptions options, FlightLauncher shuttle, boolean startSyncs ) {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( options.getInt( "batch-kb", DEFAULT_BATCH_KB ) << 10,
+                MIN_BATCH_KB << 10,
+                options.getInt( "max-batch-mb", DEFAULT_MAX_BATCH_MB ) << 20,
+                options.getInt( "target-latency-ms", DEFAULT_TARGET_LATENCY_MS ),
+                TimeUnit.MILLISECONDS );
+        int workers = options.getInt( "workers", DEFAULT_WORKERS );
+        return new AdaptiveBatchLauncher( shuttle,
+                batchSize,
+                options.getInt( "upload-attempts", DEFAULT_UPLOAD_ATTEMPTS ),
+                workers,
+                options.getInt( "max-in-flight", 2 * workers ),
+                startSyncs );
+    }
 
-        shuttle.launchPayloadFlight( flights );
+    static Partitioner partitioner( CambridgeOptions options ) {
+        return new Partitioner( options.getInt( "partition", 0 ),
+                options.getInt( "partitions", 1 ),
+                options.get( "partition-key", Partitioner.PERSON_KEY ) );
     }
 
+    /**
+     * Sorts the rows by the {@code --sort-by} columns, so rows equal in the leading sort columns, e.g. the rows of a
+     * person when sorting by {@code PersonID,IncNum}, reach the flights and the dedup cache together.
+     */
+    static Payload sortedPayload( CambridgeOptions options, Payload source ) {
+        String[] columns = options.get( "sort-by", null ).split( "," );
+        Path tempDir = Paths.get( options.get( "sort-dir", System.getProperty( "java.io.tmpdir" ) ) );
+        logger.info( "Sorting rows by {} spilling to {}", Arrays.toString( columns ), tempDir );
+        return new ExternalSortPayload( source,
+                (long) options.getInt( "sort-memory-mb", DEFAULT_SORT_MEMORY_MB ) << 20,
+                tempDir,
+                columns );
+    }
 
-    public static List standardRaceList( Row row ) {
-        String sr = row.getAs("Race");
-
-        if  (sr != null) {
-
-            String[] racesArray = StringUtils.split( sr, "," );
-            List<String> races = Arrays.asList( racesArray );
-
-            if ( races != null ) {
-                Collections.replaceAll( races, "A", "asian" );
-                Collections.replaceAll( races, "W", "white" );
-                Collections.replaceAll( races, "B", "black" );
-                Collections.replaceAll( races, "I", "amindian" );
-                Collections.replaceAll( races, "U", "pacisland" );
-                Collections.replaceAll( races, "", "" );
-
-                List<String> finalRaces = races
-                        .stream()
-                        .filter( StringUtils::isNotBlank )
-                        //                    .filter( (race) ->
-                        //                            (race != "Client refused") && (race != "Data not collected")
-                        //                    )
-                        .collect( Collectors.toList() );
-
-                return finalRaces;
-            }
+    static Checkpoint loadCheckpoint( CambridgeOptions options, Partitioner partitioner ) throws IOException {
+        if ( !options.contains( "checkpoint-dir" ) ) {
             return null;
         }
-        return null;
+        if ( options.isJdbcInput() ) {
+            logger.warn( "Checkpoints are only supported for file inputs, ignoring --checkpoint-dir." );
+            return null;
+        }
+        return Checkpoint.load( Paths.get( options.get( "checkpoint-dir", null ) ),
+                Paths.get( options.getInput() ),
+                partitioner,
+                options.getInt( "checkpoint-interval", DEFAULT_CHECKPOINT_INTERVAL ) );
     }
 
-    public static List standardEthnicity( Row row ) {
-        String sr = row.getAs("Ethnicity");
+    /**
+     * Builds the payload of one flight from its source: change detection against the previous run first, so rows a
+     * resumed run skips are still recorded in the change index, then checkpoint tracking, then dedup against the other
+     * flights of this run. Change detection only depends on the previous, committed index, so checkpoint offsets stay
+     * valid between a failed run and its resumption. The rows left are counted as {@code flight.<flight>.rows}.
+     */
+    static Payload flightPayload(
+            Payload source,
+            Checkpoint checkpoint,
+            ChangeIndex changeIndex,
+            EntityDedupCache dedupCache,
+            String flight,
+            List<DedupKey> keys ) {
+        Payload payload = source;
+        if ( changeIndex != null ) {
+            payload = new ChangeDetectionPayload( payload, changeIndex, keys );
+        }
+        if ( checkpoint != null ) {
+            payload = checkpoint.track( flight, payload );
+        }
+        Payload deduped = new DedupPayload( payload, dedupCache, keys );
+        LongAdder rows = PipelineMetrics.get().counter( "flight." + flight + ".rows" );
+        return () -> deduped.getPayload().peek( row -> rows.increment() );
+    }
 
-        if  (sr != null) {
+    /**
+     * @return Whether the flight is launched, rather than skipped because it already completed in an earlier run.
+     */
+    static boolean schedule(
+            FlightScheduler scheduler,
+            Checkpoint checkpoint,
+            String name,
+            FlightPlan flight,
+            Payload payload,
+            String... dependsOn ) {
+        if ( checkpoint != null && checkpoint.isComplete( name ) ) {
+            scheduler.addCompleted( name );
+            return false;
+        }
+        scheduler.add( name, flight, payload, dependsOn );
+        return true;
+    }
 
-            String[] racesArray = StringUtils.split( sr, "," );
-            List<String> races = Arrays.asList( racesArray );
+    static Payload incidentsPayload( CambridgeOptions options ) {
+        if ( !options.isJdbcInput() ) {
+            // Checkpoint offsets are only meaningful if rows always arrive in file order.
+            boolean ordered = !options.has( "unordered" ) || options.contains( "checkpoint-dir" );
+            return new MappedCsvPayload( Paths.get( options.getInput() ),
+                    ROW_LAYOUT,
+                    options.getInt( "parse-threads", Runtime.getRuntime().availableProcessors() ),
+                    options.getInt( "chunk-mb", DEFAULT_CHUNK_MB ) << 20,
+                    ordered );
+        }
 
-            if ( races != null ) {
-                Collections.replaceAll( races, "N", "nonhispanic" );
-                Collections.replaceAll( races, "H", "hispanic" );
-                Collections.replaceAll( races, "U", "" );
-                Collections.replaceAll( races, "", "" );
+        String connectionUrl = JdbcPayload.cursorUrl( options.getInput() );
+        return new JdbcPayload( () -> DriverManager.getConnection( connectionUrl ),
+                options.get( "query", CambridgeOptions.DEFAULT_QUERY ),
+                ROW_LAYOUT,
+                options.getInt( "fetch-size", CambridgeOptions.DEFAULT_FETCH_SIZE ),
+                JDBC_TEMPORAL_PATTERNS );
+    }
 
-                List<String> finalRaces = races
-                        .stream()
-                        .filter( StringUtils::isNotBlank )
-                        .collect( Collectors.toList() );
+    /**
+     * The dedup keys of {@link #unifiedFlight()}: those of each role's split flight, applied to that role's rows.
+     */
+    static List<DedupKey> unifiedDedupKeys() {
+        Map<String, List<DedupKey>> keysByRoute = ImmutableMap.of(
+                SUSPECT, dedupKeys( "CambridgePeople_1", "CambridgeSuspects", "CambridgeAppearIn" ),
+                DEFENDANT, dedupKeys( "CambridgePeople_1", "CambridgeSuspects", "CambridgeArrestedIn" ),
+                OTHER, dedupKeys( "CambridgePeople_2", "CambridgeJusticePeople", "CambridgeAppearIn" ) );
+        List<DedupKey> keys = new ArrayList<>();
+        keysByRoute.forEach( ( route, routeKeys ) -> routeKeys
+                .forEach( key -> keys.add( key.when( row -> route.equals( routeForRole( row ) ) ) ) ) );
+        return keys;
+    }
 
-                return finalRaces;
-            }
-            return null;
-        }
-        return null;
+    /**
+     * The keys of the entities and associations of one role's flight. The role, height and weight of a justice person
+     * are recorded per incident, so justice people and their associations are keyed by person and incident.
+     */
+    static List<DedupKey> dedupKeys( String peopleSet, String justicePeopleSet, String incidentAssociationSet ) {
+        return Arrays.asList(
+                new DedupKey( peopleSet, PERSON_COLUMNS ).keyedBy( "PersonID" ),
+                new DedupKey( justicePeopleSet, JUSTICE_PERSON_COLUMNS ).keyedBy( "PersonID", "IncNum" ),
+                new DedupKey( "CambridgeAddresses", PERSON_ADDRESS_COLUMNS ),
+                new DedupKey( "CambridgeAddresses", INCIDENT_ADDRESS_COLUMNS ),
+                new DedupKey( "CambridgePDIncidents", INCIDENT_COLUMNS ).keyedBy( "IncNum" ),
+                new DedupKey( "CambridgeBecomes", DedupKey.columns( PERSON_COLUMNS, JUSTICE_PERSON_COLUMNS ) )
+                        .keyedBy( "PersonID", "IncNum" )
+                        .qualifiedBy( peopleSet ),
+                new DedupKey( incidentAssociationSet, DedupKey.columns( JUSTICE_PERSON_COLUMNS, INCIDENT_COLUMNS ) )
+                        .keyedBy( "PersonID", "IncNum" ),
+                new DedupKey( "CambridgeLocatedAt", DedupKey.columns( PERSON_COLUMNS, PERSON_ADDRESS_COLUMNS ) )
+                        .qualifiedBy( peopleSet ),
+                new DedupKey( "CambridgeOccurredAt", DedupKey.columns( INCIDENT_COLUMNS, INCIDENT_ADDRESS_COLUMNS ) ) );
     }
 
-    public static String getPStreet( Row row) {
-        String unit = Parsers.getAsString( row.getAs( "MasterPerson.Unit" ) );
-        String number = Parsers.getAsString( row.getAs( "MasterPerson.StNo" ) );
-        String street = Parsers.getAsString( row.getAs( "MasterPerson.Street" ) );
+    static String routeForRole( Map<String, String> row ) {
+        return routeForRole( ROLE.get( row ) );
+    }
 
-        if ( StringUtils.isNotBlank( unit ) && StringUtils.isNotBlank( number ) && StringUtils.isNotBlank( street ) ) {
-            if ( StringUtils.isNotBlank( unit ) ) {
-                StringBuilder streetaddress = new StringBuilder( "#" );
-                streetaddress.append( unit ).append( ", " ).append( number ).append( " " ).append( street );
-                return streetaddress.toString();
-            }
-            StringBuilder streetaddress = new StringBuilder( number );
-            streetaddress.append( " " ).append( street );
-            return streetaddress.toString();
+    static String routeForRole( String role ) {
+        if ( SUSPECT.equals( role ) || DEFENDANT.equals( role ) ) {
+            return role;
         }
-        return null;
+        return OTHER;
     }
 
-    public static String getIStreet( Row row) {
-        String unit = Parsers.getAsString( row.getAs( "Incidents.Unit" ) );
-        String number = Parsers.getAsString( row.getAs( "Incidents.StNo" ) );
-        String street = Parsers.getAsString( row.getAs( "Incidents.Street" ) );
+    static boolean isSuspect( Row row ) {
+        String role = ROLE.get( row );
+        return SUSPECT.equals( routeForRole( role ) );
+    }
 
-        if ( StringUtils.isNotBlank( unit ) && StringUtils.isNotBlank( number ) && StringUtils.isNotBlank( street ) ) {
+    static boolean isDefendant( Row row ) {
+        String role = ROLE.get( row );
+        return DEFENDANT.equals( routeForRole( role ) );
+    }
 
-            if ( StringUtils.isNotBlank( unit ) ) {
-                StringBuilder streetaddress = new StringBuilder( "#" );
-                streetaddress.append( unit ).append( ", " ).append( number ).append( " " ).append( street );
-                return streetaddress.toString();
-            }
-            StringBuilder streetaddress = new StringBuilder( number );
-            streetaddress.append( " " ).append( street );
-            return streetaddress.toString();
-        }
-        return null;
+    static boolean isOther( Row row ) {
+        String role = ROLE.get( row );
+        return OTHER.equals( routeForRole( role ) );
     }
 
-    public static String getIAddress( Row row) {
-        String street = Cambridge.getIStreet( row );
-        String street2 = Parsers.getAsString( row.getAs( "Street2" ) );
-        String city = Parsers.getAsString( row.getAs( "Incidents.City" ) );
+    static boolean isNotOther( Row row ) {
+        return !isOther( row );
+    }
 
-        if ( StringUtils.isNotBlank( street ) ) {
-            StringBuilder fulladdress = new StringBuilder( street ) ;
-                    fulladdress.append(", ").append( street2 ).append( ", " ).append( city ).append( ", MA" );
-                    return fulladdress.toString();
-        }
-        return null;
+    public static Object birthDate( Row row ) {
+        return bdHelper.parse( DOB.get( row ) );
     }
 
-    public static String getPAddress( Row row) {
-        String street = Cambridge.getPStreet( row )  ;
-        String city = Parsers.getAsString( row.getAs( "MasterPerson.City" ) );
-        String state = Parsers.getAsString( row.getAs( "State" ) );
+    public static Object dateReported( Row row ) {
+        return dtHelper.parse( DT_REPORTED.get( row ) );
+    }
 
-        if ( StringUtils.isNotBlank( street) ) {
-            StringBuilder fulladdress = new StringBuilder( street ) ;
-            fulladdress.append(", ").append( city ).append( ", " ).append( state );
-            return fulladdress.toString();
-        }
-        return null;
+    public static Integer height( Row row ) {
+        return Parsers.parseInt( HEIGHT.get( row ) );
+    }
+
+    public static Integer weight( Row row ) {
+        return Parsers.parseInt( WEIGHT.get( row ) );
+    }
+
+    public static List standardRaceList( Row row ) {
+        return raceDecoder.decode( RACE.get( row ) );
+    }
+
+    public static List standardEthnicity( Row row ) {
+        return ethnicityDecoder.decode( ETHNICITY.get( row ) );
+    }
+
+    public static String getPStreet( Row row ) {
+        return AddressFields.street( AddressFields.PERSON_UNIT.get( row ),
+                AddressFields.PERSON_NUMBER.get( row ),
+                AddressFields.PERSON_STREET_NAME.get( row ) );
+    }
+
+    public static String getIStreet( Row row ) {
+        return AddressFields.street( AddressFields.INCIDENT_UNIT.get( row ),
+                AddressFields.INCIDENT_NUMBER.get( row ),
+                AddressFields.INCIDENT_STREET_NAME.get( row ) );
+    }
+
+    public static String getIAddress( Row row ) {
+        return AddressFields.incidentAddress( getIStreet( row ),
+                AddressFields.INCIDENT_STREET2.get( row ),
+                AddressFields.INCIDENT_CITY.get( row ) );
+    }
+
+    public static String getPAddress( Row row ) {
+        return AddressFields.personAddress( getPStreet( row ),
+                AddressFields.PERSON_CITY.get( row ),
+                AddressFields.PERSON_STATE.get( row ) );
     }
 
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Combines the output of the workers of a partitioned run, see {@link Partitioner}.
+ * <p>
+ * {@code metrics <output> <input>...} merges the metrics files written with {@code --metrics} by each worker into
+ * one file: counters are summed and histograms merged, so percentiles are those of the whole run.
+ * <p>
+ * {@code checkpoints <checkpoint dir> <incidents csv> <partitions>} reports the progress of every partition. Once all
+ * partitions have completed, their checkpoints are deleted so the next run on the same input starts over.
+ */
+public class CambridgeMerge {
+    private static final Logger logger = LoggerFactory.getLogger( CambridgeMerge.class );
+
+    public static void main( String[] args ) throws IOException {
+        if ( args.length >= 3 && "metrics".equals( args[ 0 ] ) ) {
+            List<Path> inputs = new ArrayList<>();
+            for ( int i = 2; i < args.length; ++i ) {
+                inputs.add( Paths.get( args[ i ] ) );
+            }
+            mergeMetrics( Paths.get( args[ 1 ] ), inputs );
+        } else if ( args.length == 4 && "checkpoints".equals( args[ 0 ] ) ) {
+            boolean complete = mergeCheckpoints( Paths.get( args[ 1 ] ),
+                    Paths.get( args[ 2 ] ),
+                    Integer.parseInt( args[ 3 ] ) );
+            System.exit( complete ? 0 : 1 );
+        } else {
+            throw new IllegalArgumentException( "Usage: CambridgeMerge metrics <output> <input>... | "
+                    + "CambridgeMerge checkpoints <checkpoint dir> <incidents csv> <partitions>" );
+        }
+    }
+
+    public static void mergeMetrics( Path output, List<Path> inputs ) throws IOException {
+        PipelineMetrics merged = new PipelineMetrics();
+        for ( Path input : inputs ) {
+            merged.addJson( input );
+        }
+        merged.writeJson( output );
+        merged.report();
+    }
+
+    /**
+     * @return Whether every partition has completed, in which case the checkpoints were deleted.
+     */
+    public static boolean mergeCheckpoints( Path directory, Path incidents, int partitions ) throws IOException {
+        List<Checkpoint> checkpoints = new ArrayList<>( partitions );
+        Map<String, Long> rows = new TreeMap<>();
+        int complete = 0;
+        for ( int partition = 0; partition < partitions; ++partition ) {
+            Partitioner partitioner = new Partitioner( partition, partitions, Partitioner.PERSON_KEY );
+            Checkpoint checkpoint = Checkpoint.load( directory, incidents, partitioner, 1 );
+            checkpoints.add( checkpoint );
+
+            Map<String, Long> saved = checkpoint.getSavedRows();
+            saved.forEach( ( flight, count ) -> rows.merge( flight, count, Long::sum ) );
+            if ( checkpoint.isRunComplete() ) {
+                ++complete;
+            }
+            logger.info( "Partition {}: {}, rows {}",
+                    partition,
+                    checkpoint.isRunComplete() ? "complete" : checkpoint.exists() ? "in progress" : "not started",
+                    saved );
+        }
+        logger.info( "{} of {} partitions complete, rows per flight {}", complete, partitions, rows );
+
+        if ( complete < partitions ) {
+            return false;
+        }
+        for ( Checkpoint checkpoint : checkpoints ) {
+            checkpoint.clear();
+        }
+        logger.info( "All partitions complete, removed their checkpoints." );
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line arguments for {@link Cambridge}: the incidents input and the JWT, followed by optional
+ * {@code --name=value} or {@code --flag} options.
+ * <p>
+ * The input is either the path to the incidents CSV or a JDBC URL, in which case the rows are read with
+ * {@code --query} (default {@value #DEFAULT_QUERY}) and {@code --fetch-size}. The query has to return the columns
+ * of the CSV export under the same labels, so the columns the export prefixes with their table need an alias, e.g.
+ * {@code [MasterPerson].[Street] AS [MasterPerson.Street]} for {@code MasterPerson.Street}, {@code MasterPerson.Unit},
+ * {@code MasterPerson.StNo}, {@code MasterPerson.City}, {@code Incidents.Street}, {@code Incidents.Unit},
+ * {@code Incidents.StNo} and {@code Incidents.City}; the default query expects an {@code Incidents} view that already
+ * does so. Dates and timestamps are formatted like the export, see {@link JdbcPayload}. CSV files are parsed by
+ * {@link MappedCsvPayload} using {@code --parse-threads} threads on {@code --chunk-mb} chunks, parsing at most 64 MB
+ * ahead of the flights whatever the number of threads; {@code --unordered} lets rows out of order when not
+ * checkpointing.
+ * <p>
+ * {@code --watermark=<file>} turns on incremental runs against the mark stored in that file, see {@link Watermark}.
+ * {@code --lookback-hours} sizes its window and {@code --full-resync} ignores the stored mark for one run.
+ * <p>
+ * {@code --checkpoint-dir=<dir>} makes runs on a file input resumable, see {@link Checkpoint}, saving progress every
+ * {@code --checkpoint-interval} acknowledged rows.
+ * <p>
+ * {@code --change-index=<file>} only uploads rows with entities that changed since the previous run, see
+ * {@link ChangeIndex}. {@code --full-resync} also bypasses the change index for one run.
+ * <p>
+ * {@code --sink=<dir>} is a dry run: nothing is uploaded and the flights are written to that directory by
+ * {@link LocalSink} instead. The JWT is not used, but still has to be given.
+ * <p>
+ * {@code --ingest-url=<url>} replaces Shuttle with {@link HttpIngestLauncher}, which posts the gzipped batches to that
+ * URL, normally a {@link LocalIngestServer} started with
+ * {@code java ... LocalIngestServer [port] [latency ms] [ms per MB] [error rate]}, to measure uploads offline. The
+ * batches are the same as for Shuttle, but no syncs are started and the JWT is not used.
+ * <p>
+ * Flights are uploaded through Shuttle in batches by {@link AdaptiveBatchLauncher}, starting with {@code --batch-kb}
+ * batches and adapting them up to {@code --max-batch-mb} around {@code --target-latency-ms}. Sizes are bytes of the
+ * serialized rows before compression; batches are held gzipped. Failed batches are tried
+ * {@code --upload-attempts} times. {@code --workers} batches are uploaded at the same time, and at most
+ * {@code --max-in-flight} batches, by default twice the workers, are held in memory across all flights. Only a full
+ * run starts new syncs of the entity sets; a run that resumes a checkpoint, processes one partition or only sends rows
+ * past a stored watermark or changed since a previous change index writes into the current syncs.
+ * <p>
+ * {@link PipelineMetrics} are logged every {@code --metrics-interval-s} seconds, 0 turning that off, and written to
+ * {@code --metrics=<file>} as JSON at the end of the run.
+ * <p>
+ * {@code --partitions=<n>} and {@code --partition=<i>} make this worker process only its hash partition of the
+ * rows, by {@code --partition-key} ({@code PersonID} or {@code IncNum}), see {@link Partitioner}. The watermark,
+ * change index, checkpoint, metrics and sink of each partition are kept apart by a suffix; {@link CambridgeMerge}
+ * combines the metrics and checkpoints of all partitions.
+ * <p>
+ * {@code --unified-flight} runs a single flight with role conditional entities instead of the separate suspects,
+ * defendants and others flights.
+ * <p>
+ * {@code --sort-by=<columns>}, for example {@code PersonID,IncNum}, sorts the rows before the flights so the rows of
+ * each person, and of each incident of a person, are adjacent, see {@link ExternalSortPayload}. At most
+ * {@code --sort-memory-mb} of rows are held at once, the rest is spilled to {@code --sort-dir}.
+ * <p>
+ * {@code --mapping=<file>} loads the flights from a JSON mapping, see {@link FlightMapping}, instead of the ones
+ * built into {@link Cambridge}.
+ */
+public class CambridgeOptions {
+    public static final String DEFAULT_QUERY      = "SELECT * FROM Incidents";
+    public static final int    DEFAULT_FETCH_SIZE = 1000;
+
+    private final String              input;
+    private final String              jwtToken;
+    private final Map<String, String> options;
+
+    private CambridgeOptions( String input, String jwtToken, Map<String, String> options ) {
+        this.input = input;
+        this.jwtToken = jwtToken;
+        this.options = options;
+    }
+
+    public static CambridgeOptions parse( String[] args ) {
+        if ( args.length < 2 ) {
+            throw new IllegalArgumentException( "Usage: Cambridge <incidents csv or jdbc url> <jwt> [--option=value ...]" );
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for ( int i = 2; i < args.length; ++i ) {
+            String arg = args[ i ];
+            if ( !arg.startsWith( "--" ) ) {
+                throw new IllegalArgumentException( "Unexpected argument " + arg );
+            }
+            int separator = arg.indexOf( '=' );
+            if ( separator < 0 ) {
+                options.put( arg.substring( 2 ), "true" );
+            } else {
+                options.put( arg.substring( 2, separator ), arg.substring( separator + 1 ) );
+            }
+        }
+        return new CambridgeOptions( args[ 0 ], args[ 1 ], options );
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    public String getJwtToken() {
+        return jwtToken;
+    }
+
+    public boolean isJdbcInput() {
+        return input.startsWith( "jdbc:" );
+    }
+
+    public boolean contains( String name ) {
+        return options.containsKey( name );
+    }
+
+    public boolean has( String name ) {
+        return Boolean.parseBoolean( options.getOrDefault( name, "false" ) );
+    }
+
+    public String get( String name, String defaultValue ) {
+        return options.getOrDefault( name, defaultValue );
+    }
+
+    public int getInt( String name, int defaultValue ) {
+        String value = options.get( name );
+        return value == null ? defaultValue : Integer.parseInt( value );
+    }
+}
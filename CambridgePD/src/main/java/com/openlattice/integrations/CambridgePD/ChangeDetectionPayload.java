@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Drops rows whose entities and associations are all unchanged since the previous run according to a
+ * {@link ChangeIndex}, so upload volume follows the size of the changes rather than the size of the extract.
+ */
+public class ChangeDetectionPayload implements Payload {
+    private final Payload        payload;
+    private final ChangeIndex    index;
+    private final List<DedupKey> keys;
+
+    public ChangeDetectionPayload( Payload payload, ChangeIndex index, List<DedupKey> keys ) {
+        this.payload = payload;
+        this.index = index;
+        this.keys = keys;
+    }
+
+    @Override
+    public Stream<Map<String, String>> getPayload() {
+        return payload.getPayload().filter( this::hasChangedEntity );
+    }
+
+    private boolean hasChangedEntity( Map<String, String> row ) {
+        boolean hasChanged = false;
+        // Every key has to be recorded for the next run, so no short circuiting here.
+        for ( DedupKey key : keys ) {
+            if ( key.appliesTo( row ) ) {
+                long contentHash = EntityDedupCache.fingerprint( key.getEntitySet(), key.identity( row ) );
+                hasChanged |= index.isChanged( key.getEntitySet(), key.id( row ), contentHash );
+            }
+        }
+        return hasChanged;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persistent index of entity content hashes from the previous run, used to only upload entities that are new or
+ * changed.
+ * <p>
+ * The index is a memory-mapped open addressing table of (entity key, content hash) pairs, where the entity key is a
+ * fingerprint of the entity set and the entity's id, e.g. its {@code PersonID}. Lookups go against the index written
+ * by the previous run, while this run's hashes are written to a new index next to it. The new index only replaces the
+ * old one on {@link #commit()}, so a failed run never marks entities as sent. Entities of the previous index that this
+ * run did not see, e.g. because the {@link Watermark} left out their rows, are carried forward on commit, so a later
+ * run does not take them for new ones. Entities therefore stay in the index until a run ignores the previous one.
+ */
+public class ChangeIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger( ChangeIndex.class );
+
+    private static final long  MAGIC            = 0x43414d4249445831L;
+    private static final int   HEADER_BYTES     = 16;
+    private static final int   SLOT_BYTES       = 16;
+    private static final int   MIN_CAPACITY     = 1 << 16;
+    private static final int   MAX_CAPACITY     = 1 << 26;
+    private static final float LOAD_FACTOR      = 0.7f;
+    private static final long  EMPTY            = 0L;
+
+    private final Path       file;
+    private final Path       nextFile;
+    private final LongBuffer previous;
+    private final int        previousMask;
+    private final LongAdder  changed   = new LongAdder();
+    private final LongAdder  unchanged = new LongAdder();
+    private       LongBuffer next;
+    private       int        nextCapacity;
+    private       int        nextSize;
+
+    private ChangeIndex( Path file, LongBuffer previous, int previousCapacity ) throws IOException {
+        this.file = file;
+        this.nextFile = file.resolveSibling( file.getFileName() + ".next" );
+        this.previous = previous;
+        this.previousMask = previousCapacity - 1;
+        this.nextCapacity = Math.max( MIN_CAPACITY, previousCapacity );
+        this.next = map( nextFile, nextCapacity, FileChannel.MapMode.READ_WRITE );
+    }
+
+    /**
+     * Opens the index stored in {@code file}. With {@code ignorePrevious} every entity counts as changed, but a new
+     * index is still written.
+     */
+    public static ChangeIndex open( Path file, boolean ignorePrevious ) throws IOException {
+        if ( ignorePrevious || !Files.exists( file ) ) {
+            return new ChangeIndex( file, null, 0 );
+        }
+
+        LongBuffer previous = map( file, -1, FileChannel.MapMode.READ_ONLY );
+        if ( previous.get( 0 ) != MAGIC ) {
+            throw new IOException( "Not a change index: " + file );
+        }
+        int capacity = (int) ( previous.get( 1 ) >>> 32 );
+        logger.info( "Loaded change index {} with {} entities.", file, (int) previous.get( 1 ) );
+        return new ChangeIndex( file, previous, capacity );
+    }
+
+    /**
+     * @return Whether there is a previous index to compare against, so only changed entities are sent.
+     */
+    public boolean isIncremental() {
+        return previous != null;
+    }
+
+    /**
+     * Records the content hash of an entity for the next run.
+     *
+     * @return true if the entity is new or its content differs from the previous run.
+     */
+    public boolean isChanged( String entitySet, String id, long contentHash ) {
+        long key = EntityDedupCache.fingerprint( entitySet, id );
+        boolean isChanged = previous == null || lookup( key ) != contentHash;
+        record( key, contentHash );
+        ( isChanged ? changed : unchanged ).increment();
+        return isChanged;
+    }
+
+    private long lookup( long key ) {
+        int slot = mix( key ) & previousMask;
+        while ( true ) {
+            long slotKey = previous.get( index( slot ) );
+            if ( slotKey == EMPTY ) {
+                return EMPTY;
+            }
+            if ( slotKey == key ) {
+                return previous.get( index( slot ) + 1 );
+            }
+            slot = ( slot + 1 ) & previousMask;
+        }
+    }
+
+    private synchronized void record( long key, long contentHash ) {
+        if ( put( next, nextCapacity - 1, key, contentHash ) ) {
+            ++nextSize;
+            if ( nextSize > nextCapacity * LOAD_FACTOR ) {
+                grow();
+            }
+        }
+    }
+
+    private static boolean put( LongBuffer table, int mask, long key, long contentHash ) {
+        int slot = mix( key ) & mask;
+        while ( true ) {
+            long slotKey = table.get( index( slot ) );
+            if ( slotKey == EMPTY || slotKey == key ) {
+                table.put( index( slot ), key );
+                table.put( index( slot ) + 1, contentHash );
+                return slotKey == EMPTY;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+    }
+
+    private void grow() {
+        if ( nextCapacity >= MAX_CAPACITY ) {
+            throw new IllegalStateException( "Change index is full at " + nextSize + " entities." );
+        }
+        try {
+            int capacity = nextCapacity << 1;
+            Path grown = nextFile.resolveSibling( nextFile.getFileName() + ".grow" );
+            LongBuffer table = map( grown, capacity, FileChannel.MapMode.READ_WRITE );
+            for ( int slot = 0; slot < nextCapacity; ++slot ) {
+                long key = next.get( index( slot ) );
+                if ( key != EMPTY ) {
+                    put( table, capacity - 1, key, next.get( index( slot ) + 1 ) );
+                }
+            }
+            Files.move( grown, nextFile, StandardCopyOption.REPLACE_EXISTING );
+            next = table;
+            nextCapacity = capacity;
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Unable to grow change index.", e );
+        }
+    }
+
+    /**
+     * Replaces the previous index with the hashes recorded during this run and the entities of the previous index that
+     * were not seen during it.
+     */
+    public synchronized void commit() throws IOException {
+        int carried = carryForward();
+        next.put( 0, MAGIC );
+        next.put( 1, ( (long) nextCapacity << 32 ) | nextSize );
+        Files.move( nextFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        logger.info( "Change detection found {} changed and {} unchanged entities, saved {} entities to {}, {} of "
+                        + "them carried forward from the previous run",
+                changed.sum(),
+                unchanged.sum(),
+                nextSize,
+                file,
+                carried );
+    }
+
+    /**
+     * Records the entities of the previous index that were not recorded during this run, with their previous hash.
+     *
+     * @return The number of entities carried forward.
+     */
+    private int carryForward() {
+        if ( previous == null ) {
+            return 0;
+        }
+        int carried = 0;
+        for ( int slot = 0; slot <= previousMask; ++slot ) {
+            long key = previous.get( index( slot ) );
+            if ( key != EMPTY && !contains( next, nextCapacity - 1, key ) ) {
+                record( key, previous.get( index( slot ) + 1 ) );
+                ++carried;
+            }
+        }
+        return carried;
+    }
+
+    private static boolean contains( LongBuffer table, int mask, long key ) {
+        int slot = mix( key ) & mask;
+        while ( true ) {
+            long slotKey = table.get( index( slot ) );
+            if ( slotKey == EMPTY || slotKey == key ) {
+                return slotKey == key;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+    }
+
+    /**
+     * Discards the hashes recorded during this run if they were not committed.
+     */
+    @Override
+    public void close() throws IOException {
+        Files.deleteIfExists( nextFile );
+    }
+
+    private static int index( int slot ) {
+        return ( HEADER_BYTES + slot * SLOT_BYTES ) / Long.BYTES;
+    }
+
+    private static int mix( long key ) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+
+    /**
+     * Maps an index file. A non negative capacity creates a new, zeroed file of that many slots.
+     */
+    private static LongBuffer map( Path path, int capacity, FileChannel.MapMode mode ) throws IOException {
+        if ( capacity >= 0 ) {
+            Files.deleteIfExists( path );
+        }
+        StandardOpenOption[] openOptions = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[] { StandardOpenOption.READ }
+                : new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW };
+        try ( FileChannel channel = FileChannel.open( path, openOptions ) ) {
+            long size = capacity >= 0 ? HEADER_BYTES + (long) capacity * SLOT_BYTES : channel.size();
+            MappedByteBuffer buffer = channel.map( mode, 0, size );
+            return buffer.asLongBuffer();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Records how far each flight got through its payload so that a failed run can be restarted on the same input
+ * without starting over from the first row.
+ * <p>
+ * For every flight the checkpoint stores the number of rows its launcher acknowledged as written through
+ * {@link FlightProgress}, saved whenever it has moved by {@code interval} rows, and whether the flight completed. A
+ * resumed flight skips exactly the acknowledged rows, so rows that were read but never written are sent again. A
+ * launcher that acknowledges nothing only makes the flight skip once it completed. Offsets count the rows of the
+ * tracked payload, which must therefore be in the same order on every run. Completed flights are not launched again.
+ * The checkpoint file is
+ * deleted once the whole run has completed, except for partitioned runs, where {@link CambridgeMerge} deletes the
+ * checkpoints of all partitions once every one of them has completed.
+ */
+public class Checkpoint {
+    private static final Logger logger = LoggerFactory.getLogger( Checkpoint.class );
+
+    private static final String INPUT_KEY       = "input";
+    private static final String ROWS_SUFFIX     = ".rows";
+    private static final String COMPLETE_SUFFIX = ".complete";
+    private static final String RUN_COMPLETE    = "run.complete";
+
+    private final Path                  file;
+    private final long                  interval;
+    private final Map<String, Long>     resumeFrom = new HashMap<>();
+    private final Map<String, Progress> progress   = new ConcurrentHashMap<>();
+    private final Properties            state      = new Properties();
+
+    private Checkpoint( Path file, String input, long interval, Properties previous ) {
+        this.file = file;
+        this.interval = interval;
+        state.putAll( previous );
+        state.setProperty( INPUT_KEY, input );
+        for ( String key : previous.stringPropertyNames() ) {
+            if ( key.endsWith( ROWS_SUFFIX ) ) {
+                String flight = key.substring( 0, key.length() - ROWS_SUFFIX.length() );
+                resumeFrom.put( flight, Long.parseLong( previous.getProperty( key ) ) );
+            }
+        }
+    }
+
+    /**
+     * Loads the checkpoint for an incidents file from {@code directory}. The checkpoint is keyed by the file's path,
+     * size and modification time, so a changed input never resumes from a stale checkpoint.
+     */
+    public static Checkpoint load( Path directory, Path incidents, long interval ) throws IOException {
+        return load( directory, incidents, Partitioner.single(), interval );
+    }
+
+    /**
+     * Loads the checkpoint of one partition of the incidents file. Every partition has its own checkpoint file.
+     */
+    public static Checkpoint load(
+            Path directory,
+            Path incidents,
+            Partitioner partitioner,
+            long interval ) throws IOException {
+        Path absolute = incidents.toAbsolutePath().normalize();
+        String input = absolute + ":" + Files.size( absolute ) + ":" + Files.getLastModifiedTime( absolute ).toMillis();
+        Path file = directory.resolve( "cambridge-" + Integer.toHexString( input.hashCode() ) + partitioner.suffix()
+                + ".checkpoint" );
+
+        Properties previous = new Properties();
+        if ( Files.exists( file ) ) {
+            try ( Reader reader = Files.newBufferedReader( file ) ) {
+                previous.load( reader );
+            }
+            if ( !input.equals( previous.getProperty( INPUT_KEY ) ) ) {
+                logger.info( "Ignoring checkpoint {} for a different input.", file );
+                previous.clear();
+            } else {
+                logger.info( "Resuming from checkpoint {}", file );
+            }
+        }
+        Files.createDirectories( directory );
+        return new Checkpoint( file, input, interval, previous );
+    }
+
+    /**
+     * @return Whether an earlier run on the same input saved progress, so this run only sends what it left over.
+     */
+    public boolean isResuming() {
+        return !resumeFrom.isEmpty();
+    }
+
+    public synchronized boolean isComplete( String flight ) {
+        return Boolean.parseBoolean( state.getProperty( flight + COMPLETE_SUFFIX ) );
+    }
+
+    /**
+     * Records that every flight of the run has completed, for runs whose checkpoint is kept after completing.
+     */
+    public synchronized void markRunComplete() {
+        state.setProperty( RUN_COMPLETE, "true" );
+        save();
+    }
+
+    public synchronized boolean isRunComplete() {
+        return Boolean.parseBoolean( state.getProperty( RUN_COMPLETE ) );
+    }
+
+    public boolean exists() {
+        return Files.exists( file );
+    }
+
+    /**
+     * @return The number of rows saved so far for each flight that has a saved offset.
+     */
+    public synchronized Map<String, Long> getSavedRows() {
+        Map<String, Long> saved = new TreeMap<>();
+        for ( String key : state.stringPropertyNames() ) {
+            if ( key.endsWith( ROWS_SUFFIX ) ) {
+                saved.put( key.substring( 0, key.length() - ROWS_SUFFIX.length() ),
+                        Long.parseLong( state.getProperty( key ) ) );
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Wraps the payload of a flight so that rows acknowledged in an earlier run are skipped and rows read are counted
+     * for {@link #progress(String)}.
+     */
+    public Payload track( String flight, Payload payload ) {
+        long skip = resumeFrom.getOrDefault( flight, 0L );
+        if ( skip > 0 ) {
+            logger.info( "Flight {} resumes after row {}", flight, skip );
+        }
+        Progress flightProgress = new Progress( flight, skip );
+        progress.put( flight, flightProgress );
+        return () -> {
+            Stream<Map<String, String>> stream = payload.getPayload().skip( skip );
+            return stream.peek( row -> flightProgress.read.incrementAndGet() );
+        };
+    }
+
+    /**
+     * @return Where the launcher of a tracked flight acknowledges written rows, or {@link FlightProgress#NONE}.
+     */
+    public FlightProgress progress( String flight ) {
+        Progress flightProgress = progress.get( flight );
+        return flightProgress == null ? FlightProgress.NONE : flightProgress;
+    }
+
+    public synchronized void markComplete( String flight ) {
+        Progress flightProgress = progress.get( flight );
+        long rows = flightProgress == null ? 0 : flightProgress.read.get();
+        state.setProperty( flight + ROWS_SUFFIX, Long.toString( rows ) );
+        state.setProperty( flight + COMPLETE_SUFFIX, "true" );
+        save();
+    }
+
+    /**
+     * Removes the checkpoint once the whole run has completed.
+     */
+    public synchronized void clear() throws IOException {
+        Files.deleteIfExists( file );
+    }
+
+    private synchronized void saveRows( String flight, long rows ) {
+        state.setProperty( flight + ROWS_SUFFIX, Long.toString( rows ) );
+        save();
+    }
+
+    private void save() {
+        try {
+            Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+            try ( Writer writer = Files.newBufferedWriter( tmp ) ) {
+                state.store( writer, "Cambridge checkpoint" );
+            }
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Unable to save checkpoint " + file, e );
+        }
+    }
+
+    /**
+     * Counts the rows read by a flight without locking, and saves acknowledged offsets every {@code interval} rows.
+     */
+    private class Progress implements FlightProgress {
+        private final    String     flight;
+        private final    AtomicLong read;
+        private final    AtomicLong acknowledged;
+        private volatile long       saved;
+
+        Progress( String flight, long skip ) {
+            this.flight = flight;
+            this.read = new AtomicLong( skip );
+            this.acknowledged = new AtomicLong( skip );
+            this.saved = skip;
+        }
+
+        @Override
+        public long rowsRead() {
+            return read.get();
+        }
+
+        @Override
+        public void acknowledge( long rows ) {
+            long current = acknowledged.accumulateAndGet( rows, Math::max );
+            if ( current - saved >= interval ) {
+                synchronized ( this ) {
+                    if ( current - saved >= interval ) {
+                        saveRows( flight, current );
+                        saved = current;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Decodes comma separated code cells such as "B,W" into their standardized values.
+ * <p>
+ * Only a handful of distinct code combinations show up in practice, so each raw cell is decoded once into an
+ * immutable list and every later row with the same cell gets that same list back without allocating.
+ * Tokens without a mapping are kept as is, and tokens that decode to a blank value are dropped.
+ */
+public class CodeListDecoder {
+    private static final int MAX_COMBINATIONS = 4096;
+
+    private final Map<String, String>                 codes;
+    private final BoundedCache<String, List<String>>  decoded = new BoundedCache<>( MAX_COMBINATIONS );
+    private final Function<String, List<String>>      decoder = this::decodeUncached;
+
+    public CodeListDecoder( Map<String, String> codes ) {
+        this.codes = codes;
+    }
+
+    public List<String> decode( String raw ) {
+        if ( raw == null ) {
+            return null;
+        }
+        return decoded.get( raw, decoder );
+    }
+
+    private List<String> decodeUncached( String raw ) {
+        String[] tokens = StringUtils.split( raw, "," );
+        List<String> values = new ArrayList<>( tokens.length );
+        for ( String token : tokens ) {
+            String value = codes.getOrDefault( token, token );
+            if ( StringUtils.isNotBlank( value ) ) {
+                values.add( value );
+            }
+        }
+        return Collections.unmodifiableList( values );
+    }
+}
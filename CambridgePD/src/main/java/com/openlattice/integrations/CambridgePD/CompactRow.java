@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.*;
+
+/**
+ * A payload row stored as a flat array of values indexed by its {@link RowSchema}, instead of a hash map repeating
+ * every header per row.
+ * <p>
+ * Only columns with a non null value are part of the map's entries. Values can only be put for columns the schema
+ * knows about.
+ */
+public class CompactRow extends AbstractMap<String, String> {
+    private final RowSchema schema;
+    private final String[]  values;
+
+    CompactRow( RowSchema schema, String[] values ) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return The value at an index of the row's schema, see {@link RowColumn} for resolving indices once.
+     */
+    public String get( int index ) {
+        return values[ index ];
+    }
+
+    public String set( int index, String value ) {
+        String previous = values[ index ];
+        values[ index ] = schema.encode( index, value );
+        return previous;
+    }
+
+    @Override
+    public String get( Object column ) {
+        int index = schema.indexOf( column );
+        return index < 0 ? null : values[ index ];
+    }
+
+    @Override
+    public boolean containsKey( Object column ) {
+        return get( column ) != null;
+    }
+
+    @Override
+    public String put( String column, String value ) {
+        int index = schema.indexOf( column );
+        if ( index < 0 ) {
+            throw new IllegalArgumentException( "Column " + column + " is not part of the row schema." );
+        }
+        return set( index, value );
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next = advance( 0 );
+
+                    private int advance( int from ) {
+                        while ( from < values.length && values[ from ] == null ) {
+                            ++from;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if ( !hasNext() ) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>( schema.column( next ), values[ next ] );
+                        next = advance( next + 1 );
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for ( String value : values ) {
+                    if ( value != null ) {
+                        ++size;
+                    }
+                }
+                return size;
+            }
+        };
+    }
+}
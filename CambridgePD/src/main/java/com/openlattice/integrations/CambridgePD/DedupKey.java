@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Identifies an entity or association produced by a flight: the entity set it is written to plus the columns its
+ * properties are computed from. Two rows with the same values in those columns produce the same entity.
+ * <p>
+ * Entities with a natural id, e.g. a {@code PersonID}, can be keyed by their id columns so that the same entity can be
+ * recognized across runs even when its content changes.
+ * <p>
+ * Associations computed from the same columns but between different entity sets are told apart by a qualifier, and
+ * keys of entities that only some rows create carry the same condition as the entity.
+ */
+public class DedupKey {
+    private final String                         entitySet;
+    private final String                         qualifier;
+    private final RowColumn[]                    idColumns;
+    private final RowColumn[]                    columns;
+    private final Predicate<Map<String, String>> when;
+
+    public DedupKey( String entitySet, String... columns ) {
+        this( entitySet, "", RowColumn.of( columns ), RowColumn.of( columns ), null );
+    }
+
+    private DedupKey(
+            String entitySet,
+            String qualifier,
+            RowColumn[] idColumns,
+            RowColumn[] columns,
+            Predicate<Map<String, String>> when ) {
+        this.entitySet = entitySet;
+        this.qualifier = qualifier;
+        this.idColumns = idColumns;
+        this.columns = columns;
+        this.when = when;
+    }
+
+    public DedupKey keyedBy( String... idColumns ) {
+        return new DedupKey( entitySet, qualifier, RowColumn.of( idColumns ), columns, when );
+    }
+
+    /**
+     * Distinguishes this key from others of the same entity set and columns, e.g. by the entity set of an end.
+     */
+    public DedupKey qualifiedBy( String qualifier ) {
+        return new DedupKey( entitySet, qualifier, idColumns, columns, when );
+    }
+
+    /**
+     * Restricts the key to the rows that create its entity.
+     */
+    public DedupKey when( Predicate<Map<String, String>> when ) {
+        return new DedupKey( entitySet, qualifier, idColumns, columns, when );
+    }
+
+    public boolean appliesTo( Map<String, String> row ) {
+        return when == null || when.test( row );
+    }
+
+    public String getEntitySet() {
+        return entitySet;
+    }
+
+    public String id( Map<String, String> row ) {
+        return join( row, idColumns );
+    }
+
+    public String identity( Map<String, String> row ) {
+        return join( row, columns );
+    }
+
+    private String join( Map<String, String> row, RowColumn[] columns ) {
+        StringBuilder joined = new StringBuilder( qualifier );
+        for ( RowColumn column : columns ) {
+            String value = column.get( row );
+            joined.append( value == null ? "" : value ).append( '\u001f' );
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Concatenates column groups, e.g. the columns of both ends of an association.
+     */
+    public static String[] columns( String[]... groups ) {
+        return Arrays.stream( groups ).flatMap( Arrays::stream ).toArray( String[]::new );
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Drops rows whose entities and associations have all already been sent by any flight sharing the same
+ * {@link EntityDedupCache}. A row is only dropped if every key is a repeat, so no new entity or edge is ever lost.
+ */
+public class DedupPayload implements Payload {
+    private final Payload          payload;
+    private final EntityDedupCache cache;
+    private final List<DedupKey>   keys;
+
+    public DedupPayload( Payload payload, EntityDedupCache cache, List<DedupKey> keys ) {
+        this.payload = payload;
+        this.cache = cache;
+        this.keys = keys;
+    }
+
+    @Override
+    public Stream<Map<String, String>> getPayload() {
+        return payload.getPayload().filter( this::hasNewEntity );
+    }
+
+    private boolean hasNewEntity( Map<String, String> row ) {
+        boolean hasNew = false;
+        // Every key has to be marked, so no short circuiting here.
+        for ( DedupKey key : keys ) {
+            if ( key.appliesTo( row ) ) {
+                hasNew |= cache.markSeen( key.getEntitySet(), key.identity( row ) );
+            }
+        }
+        return hasNew;
+    }
+}
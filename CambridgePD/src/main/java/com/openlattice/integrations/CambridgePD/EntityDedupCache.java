@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which entities have already been handed to Shuttle during this run.
+ * <p>
+ * Entities are identified by a 64-bit fingerprint of their entity set and identifying values. Fingerprints live in an
+ * open addressing table with a fixed number of slots; when the table fills up it is sorted and spilled to a
+ * memory-mapped run file, so the heap cost of the cache is fixed no matter how many distinct entities the input has.
+ * <p>
+ * Every lookup binary searches all runs, so once there are more than {@code maxRuns} of them they are merged into a
+ * single run, keeping lookups to a bounded number of searches.
+ */
+public class EntityDedupCache implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger( EntityDedupCache.class );
+
+    private static final long  EMPTY            = 0L;
+    private static final float LOAD_FACTOR      = 0.75f;
+    private static final int   DEFAULT_MAX_RUNS = 8;
+
+    private final long[]                  slots;
+    private final int                     mask;
+    private final int                     maxEntries;
+    private final int                     maxRuns;
+    private final List<LongBuffer>        runs      = new ArrayList<>();
+    private final List<File>              runFiles  = new ArrayList<>();
+    private final Map<String, LongAdder>  hits      = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder>  misses    = new ConcurrentHashMap<>();
+    private       int                     entries;
+    private       int                     spills;
+    private       int                     merges;
+
+    /**
+     * @param memoryEntries The number of fingerprints to keep on heap before spilling. Rounded up to a power of two.
+     */
+    public EntityDedupCache( int memoryEntries ) {
+        this( memoryEntries, DEFAULT_MAX_RUNS );
+    }
+
+    EntityDedupCache( int memoryEntries, int maxRuns ) {
+        int capacity = Integer.highestOneBit( Math.max( 16, (int) ( memoryEntries / LOAD_FACTOR ) ) - 1 ) << 1;
+        this.slots = new long[ capacity ];
+        this.mask = capacity - 1;
+        this.maxEntries = (int) ( capacity * LOAD_FACTOR );
+        this.maxRuns = maxRuns;
+    }
+
+    /**
+     * Records an entity as seen.
+     *
+     * @return true if this is the first time the entity was seen during this run.
+     */
+    public boolean markSeen( String entitySet, String identity ) {
+        long fingerprint = fingerprint( entitySet, identity );
+        boolean firstTime;
+        synchronized ( this ) {
+            firstTime = !containsOnDisk( fingerprint ) && insert( fingerprint );
+        }
+        ( firstTime ? misses : hits ).computeIfAbsent( entitySet, k -> new LongAdder() ).increment();
+        return firstTime;
+    }
+
+    public Map<String, Long> getHits() {
+        return snapshot( hits );
+    }
+
+    public Map<String, Long> getMisses() {
+        return snapshot( misses );
+    }
+
+    public void logStats() {
+        Map<String, Long> hitCounts = getHits();
+        Map<String, Long> missCounts = getMisses();
+        for ( String entitySet : new TreeSet<>( missCounts.keySet() ) ) {
+            logger.info( "Dedup {}: {} unique, {} repeats dropped.",
+                    entitySet,
+                    missCounts.get( entitySet ),
+                    hitCounts.getOrDefault( entitySet, 0L ) );
+        }
+        logger.info( "Dedup cache spilled {} runs to disk, merged {} times into {} runs.",
+                spills,
+                merges,
+                runs.size() );
+    }
+
+    synchronized int getRunCount() {
+        return runs.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        runs.clear();
+        for ( File runFile : runFiles ) {
+            Files.deleteIfExists( runFile.toPath() );
+        }
+        runFiles.clear();
+    }
+
+    private boolean insert( long fingerprint ) {
+        int slot = mix( fingerprint ) & mask;
+        while ( slots[ slot ] != EMPTY ) {
+            if ( slots[ slot ] == fingerprint ) {
+                return false;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        slots[ slot ] = fingerprint;
+        if ( ++entries >= maxEntries ) {
+            spill();
+        }
+        return true;
+    }
+
+    private boolean containsOnDisk( long fingerprint ) {
+        for ( LongBuffer run : runs ) {
+            int low = 0;
+            int high = run.limit() - 1;
+            while ( low <= high ) {
+                int mid = ( low + high ) >>> 1;
+                long value = run.get( mid );
+                if ( value < fingerprint ) {
+                    low = mid + 1;
+                } else if ( value > fingerprint ) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void spill() {
+        long[] sorted = new long[ entries ];
+        int i = 0;
+        for ( long value : slots ) {
+            if ( value != EMPTY ) {
+                sorted[ i++ ] = value;
+            }
+        }
+        Arrays.sort( sorted );
+
+        try {
+            File runFile = File.createTempFile( "cambridge-dedup-", ".run" );
+            runFile.deleteOnExit();
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( runFile ) ) ) ) {
+                for ( long value : sorted ) {
+                    out.writeLong( value );
+                }
+            }
+            addRun( runFile );
+            ++spills;
+            logger.info( "Spilled {} dedup fingerprints to {}", entries, runFile );
+            if ( runs.size() > maxRuns ) {
+                mergeRuns();
+            }
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Unable to spill dedup cache to disk.", e );
+        }
+
+        Arrays.fill( slots, EMPTY );
+        entries = 0;
+    }
+
+    private void addRun( File runFile ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( runFile.toPath(), StandardOpenOption.READ ) ) {
+            runs.add( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ).asLongBuffer() );
+        }
+        runFiles.add( runFile );
+    }
+
+    /**
+     * Merges all runs into one. A fingerprint is only spilled if no run had it, so the runs never overlap.
+     */
+    private void mergeRuns() throws IOException {
+        File merged = File.createTempFile( "cambridge-dedup-", ".run" );
+        merged.deleteOnExit();
+        int[] positions = new int[ runs.size() ];
+        long count = 0;
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( merged ) ) ) ) {
+            while ( true ) {
+                int next = -1;
+                long min = 0;
+                for ( int i = 0; i < positions.length; ++i ) {
+                    LongBuffer run = runs.get( i );
+                    if ( positions[ i ] < run.limit() && ( next < 0 || run.get( positions[ i ] ) < min ) ) {
+                        next = i;
+                        min = run.get( positions[ i ] );
+                    }
+                }
+                if ( next < 0 ) {
+                    break;
+                }
+                out.writeLong( min );
+                ++positions[ next ];
+                ++count;
+            }
+        }
+
+        List<File> oldFiles = new ArrayList<>( runFiles );
+        runs.clear();
+        runFiles.clear();
+        addRun( merged );
+        for ( File oldFile : oldFiles ) {
+            Files.deleteIfExists( oldFile.toPath() );
+        }
+        ++merges;
+        logger.info( "Merged {} dedup runs into {} with {} fingerprints", oldFiles.size(), merged, count );
+    }
+
+    static long fingerprint( String entitySet, String identity ) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv( hash, entitySet );
+        hash = ( hash ^ 0x1f ) * 0x100000001b3L;
+        hash = fnv( hash, identity );
+        return hash == EMPTY ? 1L : hash;
+    }
+
+    private static long fnv( long hash, String value ) {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        for ( byte b : bytes ) {
+            hash ^= ( b & 0xff );
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static int mix( long fingerprint ) {
+        long h = fingerprint * 0x9E3779B97F4A7C15L;
+        return (int) ( h ^ ( h >>> 32 ) );
+    }
+
+    private static Map<String, Long> snapshot( Map<String, LongAdder> counters ) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach( ( entitySet, counter ) -> snapshot.put( entitySet, counter.sum() ) );
+        return snapshot;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.adapter.Row;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An entity definition of a {@link FlightPlan}.
+ */
+public class EntityPlan {
+    private final String             alias;
+    private final String             entitySet;
+    private final boolean            useCurrentSync;
+    private final List<PropertyPlan> properties;
+    private final RowPredicate       when;
+
+    EntityPlan(
+            String alias,
+            String entitySet,
+            boolean useCurrentSync,
+            List<PropertyPlan> properties,
+            RowPredicate when ) {
+        this.alias = alias;
+        this.entitySet = entitySet;
+        this.useCurrentSync = useCurrentSync;
+        this.properties = Collections.unmodifiableList( properties );
+        this.when = when;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getEntitySet() {
+        return entitySet;
+    }
+
+    public boolean useCurrentSync() {
+        return useCurrentSync;
+    }
+
+    public List<PropertyPlan> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return The condition for creating the entity, or null if it is created for every row.
+     */
+    public RowPredicate getWhen() {
+        return when;
+    }
+
+    EntityPlan inCurrentSync() {
+        return new EntityPlan( alias, entitySet, true, properties, when );
+    }
+
+    /**
+     * Computes the entity's non null property values. Like Shuttle, an entity without any values is not created, which
+     * is also what happens when the entity's condition does not hold.
+     */
+    public Map<String, Object> evaluate( Row row ) {
+        if ( when != null && !when.test( row ) ) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> values = new LinkedHashMap<>( properties.size() * 2 );
+        for ( PropertyPlan property : properties ) {
+            Object value = property.apply( row );
+            if ( value != null ) {
+                values.put( property.getFqn(), value );
+            }
+        }
+        return values;
+    }
+
+    public static class Builder {
+        private final FlightPlan.Builder flight;
+        private final String             alias;
+        private final List<PropertyPlan> properties = new ArrayList<>();
+        private       String             entitySet;
+        private       boolean            useCurrentSync;
+        private       RowPredicate       when;
+
+        Builder( FlightPlan.Builder flight, String alias ) {
+            this.flight = flight;
+            this.alias = alias;
+        }
+
+        public Builder to( String entitySet ) {
+            this.entitySet = entitySet;
+            return this;
+        }
+
+        public Builder useCurrentSync() {
+            this.useCurrentSync = true;
+            return this;
+        }
+
+        /**
+         * Only creates the entity for rows matching the predicate. Associations from or to the entity are then only
+         * created for those rows too.
+         */
+        public Builder when( RowPredicate when ) {
+            this.when = when;
+            return this;
+        }
+
+        public Builder addProperty( String fqn, String column ) {
+            properties.add( new PropertyPlan( fqn, column, null ) );
+            return this;
+        }
+
+        public PropertyPlan.Builder<Builder> addProperty( String fqn ) {
+            return new PropertyPlan.Builder<>( fqn, property -> {
+                properties.add( property );
+                return this;
+            } );
+        }
+
+        public FlightPlan.Builder endEntity() {
+            if ( entitySet == null ) {
+                throw new IllegalStateException( "Entity " + alias + " has no entity set." );
+            }
+            return flight.add( new EntityPlan( alias, entitySet, useCurrentSync, properties, when ) );
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.google.common.base.Stopwatch;
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sorts a payload by one or more columns within a fixed memory budget, however large the input is. Rows equal in the
+ * leading sort columns come out next to each other: sorted by {@code PersonID,IncNum}, the rows of a person are
+ * adjacent and so are the rows of each incident of that person, but the rows of an incident involving several people
+ * are not.
+ * <p>
+ * Nothing is read until the first row is pulled. Rows are then buffered until their estimated heap size reaches the
+ * budget, sorted and spilled to a temp file with {@link RowCodec}. Once the source is exhausted the sorted runs are
+ * merged back with a k-way merge over a {@link PriorityQueue} of run heads, at most {@value #MAX_FAN_IN} runs at a
+ * time; beyond that, runs are first merged into larger runs. Each run is deleted as soon as it has been merged, the
+ * rest when the stream is closed. Inputs that fit the budget are sorted in memory and never touch the disk. The sort
+ * is stable, so the output order is deterministic and checkpoint offsets stay valid between runs on the same input.
+ * <p>
+ * Sorted rows, spilled runs and spill time are recorded as {@code sort.rows}, {@code sort.runs} and
+ * {@code sort.spill}.
+ */
+public class ExternalSortPayload implements Payload {
+    private static final Logger logger = LoggerFactory.getLogger( ExternalSortPayload.class );
+
+    private static final int MAX_FAN_IN     = 128;
+    private static final int BUFFER_SIZE    = 1 << 16;
+    private static final int ROW_OVERHEAD   = 64;
+    private static final int VALUE_OVERHEAD = 48;
+
+    private final Payload                         source;
+    private final Comparator<Map<String, String>> order;
+    private final long                            memoryBytes;
+    private final Path                            tempDir;
+    private final LongAdder                       sorted;
+    private final LongAdder                       spilledRuns;
+    private final LatencyHistogram                spillLatency;
+    private final RowCodec                        codec = new RowCodec();
+
+    public ExternalSortPayload( Payload source, long memoryBytes, Path tempDir, String... columns ) {
+        this.source = source;
+        this.order = byColumns( columns );
+        this.memoryBytes = memoryBytes;
+        this.tempDir = tempDir;
+        PipelineMetrics metrics = PipelineMetrics.get();
+        this.sorted = metrics.counter( "sort.rows" );
+        this.spilledRuns = metrics.counter( "sort.runs" );
+        this.spillLatency = metrics.histogram( "sort.spill" );
+    }
+
+    /**
+     * Orders rows by the given columns in turn, comparing values as strings with missing values first.
+     */
+    static Comparator<Map<String, String>> byColumns( String... columns ) {
+        Comparator<String> values = Comparator.nullsFirst( Comparator.naturalOrder() );
+        Comparator<Map<String, String>> order = null;
+        for ( RowColumn column : RowColumn.of( columns ) ) {
+            Comparator<Map<String, String>> byColumn = Comparator.comparing( column::get, values );
+            order = order == null ? byColumn : order.thenComparing( byColumn );
+        }
+        if ( order == null ) {
+            throw new IllegalArgumentException( "At least one sort column is required." );
+        }
+        return order;
+    }
+
+    @Override
+    public Stream<Map<String, String>> getPayload() {
+        SortSpliterator rows = new SortSpliterator();
+        return StreamSupport.stream( rows, false ).onClose( rows::close );
+    }
+
+    /**
+     * Reads the whole source, sorting it in memory or spilling sorted runs and merging them.
+     */
+    private Spliterator<Map<String, String>> sort() {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<Path> runs = new ArrayList<>();
+        List<Map<String, String>> buffer = new ArrayList<>();
+        long bufferedBytes = 0;
+        try ( Stream<Map<String, String>> rows = source.getPayload() ) {
+            Iterator<Map<String, String>> it = rows.iterator();
+            while ( it.hasNext() ) {
+                Map<String, String> row = it.next();
+                buffer.add( row );
+                bufferedBytes += estimateSize( row );
+                if ( bufferedBytes >= memoryBytes ) {
+                    runs.add( spill( buffer ) );
+                    buffer.clear();
+                    bufferedBytes = 0;
+                }
+            }
+
+            if ( runs.isEmpty() ) {
+                buffer.sort( order );
+                sorted.add( buffer.size() );
+                logger.info( "Sorted {} rows in memory in {}", buffer.size(), stopwatch );
+                return buffer.spliterator();
+            }
+            if ( !buffer.isEmpty() ) {
+                runs.add( spill( buffer ) );
+                buffer.clear();
+            }
+            while ( runs.size() > MAX_FAN_IN ) {
+                runs = mergeRuns( runs );
+            }
+            logger.info( "Spilled {} sorted runs in {}, merging them.", runs.size(), stopwatch );
+            return new MergeSpliterator( runs );
+        } catch ( IOException e ) {
+            runs.forEach( ExternalSortPayload::delete );
+            throw new UncheckedIOException( "Unable to sort rows.", e );
+        }
+    }
+
+    private static long estimateSize( Map<String, String> row ) {
+        long size = ROW_OVERHEAD;
+        for ( String value : row.values() ) {
+            size += value == null ? Long.BYTES : VALUE_OVERHEAD + 2L * value.length();
+        }
+        return size;
+    }
+
+    private Path spill( List<Map<String, String>> rows ) throws IOException {
+        long start = System.nanoTime();
+        rows.sort( order );
+        Path run = Files.createTempFile( tempDir, "cambridge-sort-", ".rows" );
+        run.toFile().deleteOnExit();
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( run ),
+                BUFFER_SIZE ) ) ) {
+            for ( Map<String, String> row : rows ) {
+                codec.write( out, row );
+            }
+            RowCodec.writeEnd( out );
+        }
+        sorted.add( rows.size() );
+        spilledRuns.increment();
+        spillLatency.record( System.nanoTime() - start );
+        logger.debug( "Spilled {} rows to {} in {} ms",
+                rows.size(),
+                run,
+                TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        return run;
+    }
+
+    /**
+     * Merges groups of {@value #MAX_FAN_IN} runs into one run each, deleting the merged runs.
+     */
+    private List<Path> mergeRuns( List<Path> runs ) throws IOException {
+        List<Path> merged = new ArrayList<>();
+        for ( int from = 0; from < runs.size(); from += MAX_FAN_IN ) {
+            List<Path> group = runs.subList( from, Math.min( runs.size(), from + MAX_FAN_IN ) );
+            Path run = Files.createTempFile( tempDir, "cambridge-sort-", ".rows" );
+            run.toFile().deleteOnExit();
+            MergeSpliterator merge = new MergeSpliterator( new ArrayList<>( group ) );
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( run ),
+                    BUFFER_SIZE ) ) ) {
+                merge.forEachRemaining( row -> {
+                    try {
+                        codec.write( out, row );
+                    } catch ( IOException e ) {
+                        throw new UncheckedIOException( e );
+                    }
+                } );
+                RowCodec.writeEnd( out );
+            } finally {
+                merge.close();
+            }
+            merged.add( run );
+        }
+        logger.info( "Merged {} runs into {}", runs.size(), merged.size() );
+        return merged;
+    }
+
+    private static void delete( Path run ) {
+        try {
+            Files.deleteIfExists( run );
+        } catch ( IOException e ) {
+            logger.warn( "Unable to delete sort run {}", run, e );
+        }
+    }
+
+    /**
+     * The head row of a sorted run. Ties between runs are broken by run index, which keeps the merge stable.
+     */
+    private class RunHead {
+        private final int                 index;
+        private final Path                run;
+        private final DataInputStream     in;
+        private       Map<String, String> row;
+
+        RunHead( int index, Path run ) throws IOException {
+            this.index = index;
+            this.run = run;
+            this.in = new DataInputStream( new BufferedInputStream( Files.newInputStream( run ), BUFFER_SIZE ) );
+        }
+
+        boolean advance() throws IOException {
+            row = codec.read( in );
+            return row != null;
+        }
+
+        void release() {
+            try {
+                in.close();
+            } catch ( IOException e ) {
+                logger.warn( "Unable to close sort run {}", run, e );
+            }
+            delete( run );
+        }
+    }
+
+    private class MergeSpliterator extends Spliterators.AbstractSpliterator<Map<String, String>> {
+        private final List<Path>             runs;
+        private final List<RunHead>          heads = new ArrayList<>();
+        private final PriorityQueue<RunHead> queue;
+
+        MergeSpliterator( List<Path> runs ) throws IOException {
+            super( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL );
+            this.runs = runs;
+            this.queue = new PriorityQueue<>( Math.max( 1, runs.size() ),
+                    Comparator.<RunHead, Map<String, String>>comparing( head -> head.row, order )
+                            .thenComparingInt( head -> head.index ) );
+            try {
+                for ( int i = 0; i < runs.size(); ++i ) {
+                    RunHead head = new RunHead( i, runs.get( i ) );
+                    heads.add( head );
+                    if ( head.advance() ) {
+                        queue.add( head );
+                    } else {
+                        head.release();
+                    }
+                }
+            } catch ( IOException e ) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super Map<String, String>> action ) {
+            RunHead head = queue.poll();
+            if ( head == null ) {
+                return false;
+            }
+            Map<String, String> row = head.row;
+            try {
+                if ( head.advance() ) {
+                    queue.add( head );
+                } else {
+                    head.release();
+                }
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( "Unable to read sorted run.", e );
+            }
+            action.accept( row );
+            return true;
+        }
+
+        void close() {
+            heads.forEach( RunHead::release );
+            runs.forEach( ExternalSortPayload::delete );
+        }
+    }
+
+    /**
+     * Sorts the source on the first pull and releases the sorted rows, spilled runs included, once they are exhausted.
+     */
+    private class SortSpliterator extends Spliterators.AbstractSpliterator<Map<String, String>> {
+        private Spliterator<Map<String, String>> rows;
+
+        SortSpliterator() {
+            super( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL );
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super Map<String, String>> action ) {
+            if ( rows == null ) {
+                rows = sort();
+            }
+            if ( rows.tryAdvance( action ) ) {
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        void close() {
+            if ( rows instanceof MergeSpliterator ) {
+                ( (MergeSpliterator) rows ).close();
+            }
+            rows = Spliterators.emptySpliterator();
+        }
+    }
+}
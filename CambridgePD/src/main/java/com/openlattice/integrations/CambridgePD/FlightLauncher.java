@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+
+/**
+ * Runs a flight plan over a payload, either by uploading it through Shuttle or by writing it somewhere locally.
+ * Launchers that know when rows are written acknowledge them through the flight's {@link FlightProgress}.
+ */
+@FunctionalInterface
+public interface FlightLauncher {
+    void launch( FlightPlan flight, Payload payload, FlightProgress progress ) throws InterruptedException;
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Loads flight plans from a JSON mapping file instead of code. A mapping lists flights by name, each with entities
+ * and associations:
+ * <pre>
+ * { "flights": { "UNIFIED": {
+ *     "entities": [ { "alias": "people", "entitySet": "CambridgePeople_1", "when": "isNotOther",
+ *                     "properties": { "nc.SubjectIdentification": "PersonID",
+ *                                     "nc.PersonBirthDate": { "transform": "birthDate" } } } ],
+ *     "associations": [ { "alias": "becomes", "entitySet": "CambridgeBecomes", "useCurrentSync": true,
+ *                         "from": "people", "to": "suspects", "properties": { ... } } ] } } }
+ * </pre>
+ * A property is either copied from the named column or computed by a named transform; {@code when} names an entity's
+ * condition. Names are resolved against the transforms and conditions the integration registers, so the mapping
+ * holds no code.
+ * <p>
+ * A mapping is validated as a whole before any row is read, reporting every problem at once, and compiled into
+ * {@link FlightPlan}s.
+ */
+public class FlightMapping {
+    private static final Logger logger = LoggerFactory.getLogger( FlightMapping.class );
+
+    private static final Set<String> FLIGHT_FIELDS      = ImmutableSet.of( "entities", "associations" );
+    private static final Set<String> ENTITY_FIELDS      = ImmutableSet.of( "alias",
+            "entitySet",
+            "useCurrentSync",
+            "when",
+            "properties" );
+    private static final Set<String> ASSOCIATION_FIELDS = ImmutableSet.of( "alias",
+            "entitySet",
+            "useCurrentSync",
+            "from",
+            "to",
+            "properties" );
+
+    private final Map<String, PropertyTransform> transforms;
+    private final Map<String, RowPredicate>      predicates;
+    private final List<String>                   errors = new ArrayList<>();
+
+    private FlightMapping( Map<String, PropertyTransform> transforms, Map<String, RowPredicate> predicates ) {
+        this.transforms = transforms;
+        this.predicates = predicates;
+    }
+
+    /**
+     * Loads the flight plans of a mapping.
+     *
+     * @return The flight plans by name, in mapping order.
+     * @throws IllegalArgumentException if the mapping is invalid, listing every problem.
+     */
+    public static Map<String, FlightPlan> load(
+            Path mapping,
+            Map<String, PropertyTransform> transforms,
+            Map<String, RowPredicate> predicates ) throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        JsonNode root = new ObjectMapper().enable( JsonParser.Feature.STRICT_DUPLICATE_DETECTION )
+                .readTree( mapping.toFile() );
+        Map<String, FlightPlan> flights = new FlightMapping( transforms, predicates ).compile( root, mapping );
+        logger.info( "Compiled flights {} of {} in {}", flights.keySet(), mapping, stopwatch );
+        return flights;
+    }
+
+    private LinkedHashMap<String, FlightPlan> compile( JsonNode root, Path mapping ) {
+        LinkedHashMap<String, FlightPlan> flights = new LinkedHashMap<>();
+        JsonNode flightNodes = root.path( "flights" );
+        if ( !flightNodes.isObject() || flightNodes.size() == 0 ) {
+            errors.add( "flights: expected an object with at least one flight" );
+        }
+        flightNodes.fields().forEachRemaining( flight -> {
+            FlightPlan plan = flight( flight.getKey(), flight.getValue() );
+            if ( plan != null ) {
+                flights.put( flight.getKey(), plan );
+            }
+        } );
+        if ( !errors.isEmpty() ) {
+            throw new IllegalArgumentException( "Invalid flight mapping " + mapping + ":\n  "
+                    + String.join( "\n  ", errors ) );
+        }
+        return flights;
+    }
+
+    private FlightPlan flight( String name, JsonNode node ) {
+        String path = "flights." + name;
+        int errorCount = errors.size();
+        checkFields( path, node, FLIGHT_FIELDS );
+        FlightPlan.Builder flight = FlightPlan.newFlight( name ).createEntities();
+
+        Set<String> aliases = new HashSet<>();
+        JsonNode entities = node.path( "entities" );
+        if ( !entities.isArray() || entities.size() == 0 ) {
+            errors.add( path + ".entities: expected an array with at least one entity" );
+        }
+        for ( int i = 0; i < entities.size(); ++i ) {
+            String entityPath = path + ".entities[" + i + "]";
+            JsonNode entity = entities.get( i );
+            checkFields( entityPath, entity, ENTITY_FIELDS );
+            String alias = text( entityPath, entity, "alias" );
+            if ( alias != null && !aliases.add( alias ) ) {
+                errors.add( entityPath + ".alias: duplicate alias " + alias );
+            }
+            EntityPlan.Builder builder = flight.addEntity( alias ).to( text( entityPath, entity, "entitySet" ) );
+            if ( entity.path( "useCurrentSync" ).asBoolean() ) {
+                builder = builder.useCurrentSync();
+            }
+            if ( entity.has( "when" ) ) {
+                String when = text( entityPath, entity, "when" );
+                if ( when != null && !predicates.containsKey( when ) ) {
+                    errors.add( entityPath + ".when: unknown condition " + when );
+                }
+                builder = builder.when( predicates.get( when ) );
+            }
+            builder = properties( entityPath, entity, builder, EntityPlan.Builder::addProperty,
+                    ( b, fqn, transform ) -> b.addProperty( fqn ).value( transform ).ok() );
+            if ( errors.size() == errorCount ) {
+                flight = builder.endEntity();
+            }
+        }
+
+        flight = flight.endEntities().createAssociations();
+        JsonNode associations = node.path( "associations" );
+        if ( !associations.isMissingNode() && !associations.isArray() ) {
+            errors.add( path + ".associations: expected an array" );
+        }
+        for ( int i = 0; i < associations.size(); ++i ) {
+            String associationPath = path + ".associations[" + i + "]";
+            JsonNode association = associations.get( i );
+            checkFields( associationPath, association, ASSOCIATION_FIELDS );
+            AssociationPlan.Builder builder = flight.addAssociation( text( associationPath, association, "alias" ) )
+                    .to( text( associationPath, association, "entitySet" ) )
+                    .fromEntity( entityAlias( associationPath, association, "from", aliases ) )
+                    .toEntity( entityAlias( associationPath, association, "to", aliases ) );
+            if ( association.path( "useCurrentSync" ).asBoolean() ) {
+                builder = builder.useCurrentSync();
+            }
+            builder = properties( associationPath, association, builder, AssociationPlan.Builder::addProperty,
+                    ( b, fqn, transform ) -> b.addProperty( fqn ).value( transform ).ok() );
+            if ( errors.size() == errorCount ) {
+                flight = builder.endAssociation();
+            }
+        }
+        return errors.size() == errorCount ? flight.endAssociations().done() : null;
+    }
+
+    private interface ColumnProperty<B> {
+        B add( B builder, String fqn, String column );
+    }
+
+    private interface TransformProperty<B> {
+        B add( B builder, String fqn, PropertyTransform transform );
+    }
+
+    private <B> B properties(
+            String path,
+            JsonNode node,
+            B builder,
+            ColumnProperty<B> column,
+            TransformProperty<B> transform ) {
+        JsonNode properties = node.path( "properties" );
+        if ( !properties.isObject() || properties.size() == 0 ) {
+            errors.add( path + ".properties: expected an object with at least one property" );
+            return builder;
+        }
+        Iterator<Map.Entry<String, JsonNode>> it = properties.fields();
+        while ( it.hasNext() ) {
+            Map.Entry<String, JsonNode> property = it.next();
+            String propertyPath = path + ".properties." + property.getKey();
+            JsonNode value = property.getValue();
+            if ( value.isTextual() ) {
+                builder = column.add( builder, property.getKey(), value.asText() );
+            } else if ( value.isObject() && value.size() == 1 && value.path( "transform" ).isTextual() ) {
+                String name = value.get( "transform" ).asText();
+                if ( transforms.containsKey( name ) ) {
+                    builder = transform.add( builder, property.getKey(), transforms.get( name ) );
+                } else {
+                    errors.add( propertyPath + ": unknown transform " + name );
+                }
+            } else {
+                errors.add( propertyPath + ": expected a column name or { \"transform\": <name> }" );
+            }
+        }
+        return builder;
+    }
+
+    private String entityAlias( String path, JsonNode node, String field, Set<String> aliases ) {
+        String alias = text( path, node, field );
+        if ( alias != null && !aliases.contains( alias ) ) {
+            errors.add( path + "." + field + ": unknown entity " + alias );
+        }
+        return alias;
+    }
+
+    private String text( String path, JsonNode node, String field ) {
+        JsonNode value = node.path( field );
+        if ( !value.isTextual() || value.asText().isEmpty() ) {
+            errors.add( path + "." + field + ": expected a non empty string" );
+            return null;
+        }
+        return value.asText();
+    }
+
+    private void checkFields( String path, JsonNode node, Set<String> fields ) {
+        if ( !node.isObject() ) {
+            errors.add( path + ": expected an object" );
+            return;
+        }
+        node.fieldNames().forEachRemaining( field -> {
+            if ( !fields.contains( field ) ) {
+                errors.add( path + "." + field + ": unknown field" );
+            }
+        } );
+    }
+}
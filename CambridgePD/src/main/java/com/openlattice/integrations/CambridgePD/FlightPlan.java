@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.AssociationDefinition;
+import com.openlattice.shuttle.AssociationGroup;
+import com.openlattice.shuttle.EntityDefinition;
+import com.openlattice.shuttle.EntityGroup;
+import com.openlattice.shuttle.Flight;
+import com.openlattice.shuttle.adapter.Row;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Integration side description of a flight: its entities, associations and how their properties are computed.
+ * <p>
+ * Flight plans are written with the same builder chain as Shuttle flights. They can be turned into a Shuttle
+ * {@link Flight} for uploading, or evaluated row by row without Shuttle, e.g. by {@link LocalSink}. They can also be
+ * loaded from a mapping file by {@link FlightMapping}.
+ * <p>
+ * Entities can be conditional, see {@link EntityPlan#getWhen()}. Shuttle flights have no conditions, so rows are
+ * uploaded against {@link #forRow(Row)}, the flight without the entities whose condition does not hold for the row.
+ */
+public class FlightPlan {
+    private final String                        name;
+    private final List<EntityPlan>              entities;
+    private final List<AssociationPlan>         associations;
+    private final List<EntityPlan>              conditional;
+    private final Map<Long, FlightPlan>         variants = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder>        records  = new HashMap<>();
+    private final Map<String, LatencyHistogram> uploads  = new HashMap<>();
+
+    private FlightPlan( String name, List<EntityPlan> entities, List<AssociationPlan> associations ) {
+        this.name = name;
+        this.entities = Collections.unmodifiableList( entities );
+        this.associations = Collections.unmodifiableList( associations );
+        this.conditional = entities.stream().filter( entity -> entity.getWhen() != null ).collect( Collectors.toList() );
+        if ( conditional.size() > Long.SIZE ) {
+            throw new IllegalArgumentException( "Flight " + name + " has more than " + Long.SIZE
+                    + " conditional entities." );
+        }
+        PipelineMetrics metrics = PipelineMetrics.get();
+        entities.forEach( entity -> records.put( entity.getEntitySet(),
+                metrics.counter( "records." + entity.getEntitySet() ) ) );
+        associations.forEach( association -> records.put( association.getEntitySet(),
+                metrics.counter( "records." + association.getEntitySet() ) ) );
+        records.keySet().forEach( entitySet -> uploads.put( entitySet,
+                metrics.histogram( "upload.entitySet." + entitySet ) ) );
+    }
+
+    public static Builder newFlight( String name ) {
+        return new Builder( name );
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<EntityPlan> getEntities() {
+        return entities;
+    }
+
+    public List<AssociationPlan> getAssociations() {
+        return associations;
+    }
+
+    /**
+     * @return The same flight writing every entity and association into the current sync of its entity set, for
+     * continuing a flight that already started its syncs.
+     */
+    public FlightPlan inCurrentSync() {
+        return inCurrentSync( getStartedSyncs() );
+    }
+
+    /**
+     * @return The same flight writing the given entity sets into their current syncs, e.g. the ones whose syncs another
+     * flight already started.
+     */
+    public FlightPlan inCurrentSync( Set<String> entitySets ) {
+        List<EntityPlan> entitiesInSync = new ArrayList<>( entities.size() );
+        entities.forEach( entity -> entitiesInSync.add( entitySets.contains( entity.getEntitySet() )
+                ? entity.inCurrentSync()
+                : entity ) );
+        List<AssociationPlan> associationsInSync = new ArrayList<>( associations.size() );
+        associations.forEach( association -> associationsInSync.add( entitySets.contains( association.getEntitySet() )
+                ? association.inCurrentSync()
+                : association ) );
+        return new FlightPlan( name, entitiesInSync, associationsInSync );
+    }
+
+    /**
+     * @return The entity sets whose syncs the flight starts, those it does not write with {@code useCurrentSync()}.
+     */
+    public Set<String> getStartedSyncs() {
+        Set<String> started = new LinkedHashSet<>();
+        entities.stream()
+                .filter( entity -> !entity.useCurrentSync() )
+                .forEach( entity -> started.add( entity.getEntitySet() ) );
+        associations.stream()
+                .filter( association -> !association.useCurrentSync() )
+                .forEach( association -> started.add( association.getEntitySet() ) );
+        return started;
+    }
+
+    /**
+     * @return Whether every entity and association writes into the current sync of its entity set.
+     */
+    public boolean isInCurrentSync() {
+        return entities.stream().allMatch( EntityPlan::useCurrentSync )
+                && associations.stream().allMatch( AssociationPlan::useCurrentSync );
+    }
+
+    /**
+     * @return Whether some entities are only created when their condition holds.
+     */
+    public boolean isConditional() {
+        return !conditional.isEmpty();
+    }
+
+    /**
+     * @return The flight without the conditional entities whose condition does not hold for the row, and without the
+     * associations of those entities. Rows with the same conditions holding share the same flight.
+     */
+    public FlightPlan forRow( Row row ) {
+        if ( conditional.isEmpty() ) {
+            return this;
+        }
+        long holding = 0;
+        for ( int i = 0; i < conditional.size(); ++i ) {
+            if ( conditional.get( i ).getWhen().test( row ) ) {
+                holding |= 1L << i;
+            }
+        }
+        return variants.computeIfAbsent( holding, this::variant );
+    }
+
+    private FlightPlan variant( long holding ) {
+        Set<String> dropped = new HashSet<>();
+        for ( int i = 0; i < conditional.size(); ++i ) {
+            if ( ( holding & 1L << i ) == 0 ) {
+                dropped.add( conditional.get( i ).getAlias() );
+            }
+        }
+        return new FlightPlan( name,
+                entities.stream()
+                        .filter( entity -> !dropped.contains( entity.getAlias() ) )
+                        .collect( Collectors.toList() ),
+                associations.stream()
+                        .filter( association -> !dropped.contains( association.getSrc() )
+                                && !dropped.contains( association.getDst() ) )
+                        .collect( Collectors.toList() ) );
+    }
+
+    /**
+     * Receives the entities and associations a flight produces for a row.
+     */
+    public interface Output {
+        void entity( EntityPlan entity, String id, Map<String, Object> properties );
+
+        void association(
+                AssociationPlan association,
+                String srcId,
+                String dstId,
+                Map<String, Object> properties );
+    }
+
+    /**
+     * Computes every entity and association of the flight for a row. Entities are identified by a hash of their entity
+     * set and property values, which is stable across runs but local to this integration. Records are counted per
+     * entity set as {@code records.<entity set>}.
+     */
+    public void evaluate( Row row, Output output ) {
+        Map<String, String> ids = new HashMap<>( entities.size() * 2 );
+        for ( EntityPlan entity : entities ) {
+            Map<String, Object> properties = entity.evaluate( row );
+            if ( !properties.isEmpty() ) {
+                records.get( entity.getEntitySet() ).increment();
+                String id = Long.toHexString( EntityDedupCache.fingerprint( entity.getEntitySet(),
+                        properties.toString() ) );
+                ids.put( entity.getAlias(), id );
+                output.entity( entity, id, properties );
+            }
+        }
+
+        for ( AssociationPlan association : associations ) {
+            String srcId = ids.get( association.getSrc() );
+            String dstId = ids.get( association.getDst() );
+            if ( srcId != null && dstId != null ) {
+                records.get( association.getEntitySet() ).increment();
+                Map<String, Object> properties = new LinkedHashMap<>();
+                for ( PropertyPlan property : association.getProperties() ) {
+                    Object value = property.apply( row );
+                    if ( value != null ) {
+                        properties.put( property.getFqn(), value );
+                    }
+                }
+                output.association( association, srcId, dstId, properties );
+            }
+        }
+    }
+
+    /**
+     * Counts the records of {@code rows} rows launched against this flight, one for each of its entities and
+     * associations, as {@code records.<entity set>}, like {@link #evaluate} does for rows it computes itself.
+     */
+    public void countRecords( long rows ) {
+        entities.forEach( entity -> records.get( entity.getEntitySet() ).add( rows ) );
+        associations.forEach( association -> records.get( association.getEntitySet() ).add( rows ) );
+    }
+
+    /**
+     * Records the latency of an upload of this flight for each of its entity sets as
+     * {@code upload.entitySet.<entity set>}.
+     */
+    public void recordUpload( long elapsedNanos ) {
+        uploads.values().forEach( latency -> latency.record( elapsedNanos ) );
+    }
+
+    /**
+     * Builds the equivalent Shuttle flight. Entity conditions are not part of it, so rows have to be launched against
+     * the flight of {@link #forRow(Row)}, as {@link ShuttleLauncher} does. Every property, including those copied from
+     * a column, is read through {@link PropertyPlan#apply}, so columns are resolved by {@link RowColumn} rather than
+     * looked up by name for every row.
+     */
+    public Flight toFlight() {
+        EntityGroup.Builder entityGroup = Flight.newFlight().createEntities();
+        for ( EntityPlan entity : entities ) {
+            EntityDefinition.Builder builder = entityGroup.addEntity( entity.getAlias() ).to( entity.getEntitySet() );
+            if ( entity.useCurrentSync() ) {
+                builder = builder.useCurrentSync();
+            }
+            for ( PropertyPlan property : entity.getProperties() ) {
+                builder = builder.addProperty( property.getFqn() ).value( property::apply ).ok();
+            }
+            entityGroup = builder.endEntity();
+        }
+
+        AssociationGroup.Builder associationGroup = entityGroup.endEntities().createAssociations();
+        for ( AssociationPlan association : associations ) {
+            AssociationDefinition.Builder builder = associationGroup.addAssociation( association.getAlias() )
+                    .to( association.getEntitySet() )
+                    .fromEntity( association.getSrc() )
+                    .toEntity( association.getDst() );
+            if ( association.useCurrentSync() ) {
+                builder = builder.useCurrentSync();
+            }
+            for ( PropertyPlan property : association.getProperties() ) {
+                builder = builder.addProperty( property.getFqn() ).value( property::apply ).ok();
+            }
+            associationGroup = builder.endAssociation();
+        }
+        return associationGroup.endAssociations().done();
+    }
+
+    public static class Builder {
+        private final String                name;
+        private final List<EntityPlan>      entities     = new ArrayList<>();
+        private final List<AssociationPlan> associations = new ArrayList<>();
+
+        Builder( String name ) {
+            this.name = name;
+        }
+
+        public Builder createEntities() {
+            return this;
+        }
+
+        public EntityPlan.Builder addEntity( String alias ) {
+            return new EntityPlan.Builder( this, alias );
+        }
+
+        public Builder endEntities() {
+            return this;
+        }
+
+        public Builder createAssociations() {
+            return this;
+        }
+
+        public AssociationPlan.Builder addAssociation( String alias ) {
+            return new AssociationPlan.Builder( this, alias );
+        }
+
+        public Builder endAssociations() {
+            return this;
+        }
+
+        Builder add( EntityPlan entity ) {
+            for ( EntityPlan existing : entities ) {
+                if ( existing.getAlias().equals( entity.getAlias() ) ) {
+                    throw new IllegalStateException( "Duplicate entity alias " + entity.getAlias() );
+                }
+            }
+            entities.add( entity );
+            return this;
+        }
+
+        Builder add( AssociationPlan association ) {
+            associations.add( association );
+            return this;
+        }
+
+        public FlightPlan done() {
+            Set<String> aliases = new HashSet<>();
+            entities.forEach( entity -> aliases.add( entity.getAlias() ) );
+            for ( AssociationPlan association : associations ) {
+                if ( !aliases.contains( association.getSrc() ) || !aliases.contains( association.getDst() ) ) {
+                    throw new IllegalStateException( "Association " + association.getAlias()
+                            + " refers to an unknown entity." );
+                }
+            }
+            return new FlightPlan( name, entities, associations );
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+/**
+ * How a {@link FlightLauncher} reports which rows of a flight's payload are safely written.
+ * <p>
+ * Launchers acknowledge rows once everything produced from them has been flushed or uploaded, and {@link Checkpoint}
+ * only moves a flight's offset past acknowledged rows. Launchers that cannot tell when data is written, like a
+ * single Shuttle call, do not acknowledge anything, and the flight only counts once it has completed.
+ * <p>
+ * Launchers also report when a flight has started writing, which is what {@link FlightScheduler} waits for before
+ * launching the flights that depend on it.
+ */
+public interface FlightProgress {
+    FlightProgress NONE = new FlightProgress() {
+        @Override
+        public long rowsRead() {
+            return 0;
+        }
+
+        @Override
+        public void acknowledge( long rows ) {
+        }
+    };
+
+    /**
+     * @return The number of rows of the flight's source read so far, including rows dropped before the launcher. While
+     * the launcher handles a row, this is the offset just after it.
+     */
+    long rowsRead();
+
+    /**
+     * Acknowledges that everything produced from the first {@code rows} rows of the source has been written.
+     */
+    void acknowledge( long rows );
+
+    /**
+     * Signals that the flight has written its first rows, so the syncs of its entity sets exist and flights writing
+     * into them with {@code useCurrentSync()} can start. Launchers that do not call this are considered started once
+     * the flight has completed.
+     */
+    default void started() {
+    }
+}
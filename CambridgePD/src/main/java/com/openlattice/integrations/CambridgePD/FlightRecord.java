@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * An entity or association produced by a flight plan, in the newline JSON form written by {@link LocalSink}.
+ */
+class FlightRecord {
+    final String              entitySet;
+    final String              id;
+    final String              srcSet;
+    final String              srcId;
+    final String              dstSet;
+    final String              dstId;
+    final Map<String, Object> properties;
+
+    private FlightRecord(
+            String entitySet,
+            String id,
+            String srcSet,
+            String srcId,
+            String dstSet,
+            String dstId,
+            Map<String, Object> properties ) {
+        this.entitySet = entitySet;
+        this.id = id;
+        this.srcSet = srcSet;
+        this.srcId = srcId;
+        this.dstSet = dstSet;
+        this.dstId = dstId;
+        this.properties = properties;
+    }
+
+    /**
+     * Collects the records of a flight. Association ids hash both endpoints and the association's properties.
+     */
+    static FlightPlan.Output output( FlightPlan flight, Consumer<FlightRecord> records ) {
+        return new FlightPlan.Output() {
+            @Override
+            public void entity( EntityPlan entity, String id, Map<String, Object> properties ) {
+                records.accept( new FlightRecord( entity.getEntitySet(), id, null, null, null, null, properties ) );
+            }
+
+            @Override
+            public void association(
+                    AssociationPlan association,
+                    String srcId,
+                    String dstId,
+                    Map<String, Object> properties ) {
+                String id = Long.toHexString( EntityDedupCache.fingerprint( association.getEntitySet(),
+                        srcId + '|' + dstId + '|' + properties ) );
+                records.accept( new FlightRecord( association.getEntitySet(),
+                        id,
+                        entitySet( flight, association.getSrc() ),
+                        srcId,
+                        entitySet( flight, association.getDst() ),
+                        dstId,
+                        properties ) );
+            }
+        };
+    }
+
+    private static String entitySet( FlightPlan flight, String alias ) {
+        for ( EntityPlan entity : flight.getEntities() ) {
+            if ( entity.getAlias().equals( alias ) ) {
+                return entity.getEntitySet();
+            }
+        }
+        throw new IllegalArgumentException( "Unknown entity " + alias );
+    }
+
+    /**
+     * Writes the record as one line. The generator must not have a root value separator.
+     */
+    void writeTo( JsonGenerator json ) throws IOException {
+        json.writeStartObject();
+        json.writeStringField( "id", id );
+        if ( srcId != null ) {
+            writeReference( json, "src", srcSet, srcId );
+            writeReference( json, "dst", dstSet, dstId );
+        }
+        json.writeObjectFieldStart( "properties" );
+        for ( Map.Entry<String, Object> property : properties.entrySet() ) {
+            json.writeArrayFieldStart( property.getKey() );
+            if ( property.getValue() instanceof Collection ) {
+                for ( Object value : (Collection<?>) property.getValue() ) {
+                    json.writeString( String.valueOf( value ) );
+                }
+            } else {
+                json.writeString( String.valueOf( property.getValue() ) );
+            }
+            json.writeEndArray();
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeRaw( '\n' );
+    }
+
+    private static void writeReference( JsonGenerator json, String name, String entitySet, String id )
+            throws IOException {
+        json.writeObjectFieldStart( name );
+        json.writeStringField( "entitySet", entitySet );
+        json.writeStringField( "id", id );
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.google.common.base.Stopwatch;
+import com.openlattice.shuttle.Shuttle;
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Launches flights concurrently, one thread per flight, instead of handing all of them to a single
+ * {@link Shuttle#launchPayloadFlight(Map)} call.
+ * <p>
+ * Flights that write to an entity set with {@code useCurrentSync()} rely on another flight having started the sync
+ * for that entity set, so such flights are declared as depending on the flight that owns the sync. They are launched
+ * as soon as that flight reports through {@link FlightProgress#started()} that it has written its first rows, and
+ * then run alongside it. If a flight fails before it started, the flights depending on it are not launched.
+ * <p>
+ * Flights are not bounded here: they spend most of their time waiting on their payloads, and routes of a shared
+ * source like {@link RoleRouter} are only drained if all of their flights run. How many batches are uploaded at once
+ * is up to the launcher, see {@link AdaptiveBatchLauncher}.
+ */
+public class FlightScheduler {
+    private static final Logger logger = LoggerFactory.getLogger( FlightScheduler.class );
+
+    private final FlightLauncher                   launcher;
+    private final Map<String, FlightTask>          tasks       = new LinkedHashMap<>();
+    private       Consumer<String>                 onCompleted = name -> {};
+    private       Function<String, FlightProgress> progress    = name -> FlightProgress.NONE;
+
+    /**
+     * @param launcher Launches each flight, normally through an {@link AdaptiveBatchLauncher}.
+     */
+    public FlightScheduler( FlightLauncher launcher ) {
+        this.launcher = launcher;
+    }
+
+    public FlightScheduler add( String name, FlightPlan flight, Payload payload, String... dependsOn ) {
+        for ( String dependency : dependsOn ) {
+            if ( !tasks.containsKey( dependency ) ) {
+                throw new IllegalArgumentException( "Flight " + name + " depends on unknown flight " + dependency );
+            }
+        }
+        if ( tasks.putIfAbsent( name, new FlightTask( name, flight, payload, dependsOn ) ) != null ) {
+            throw new IllegalArgumentException( "Duplicate flight " + name );
+        }
+        return this;
+    }
+
+    /**
+     * Registers a flight that already completed in an earlier run. It is not launched again, but other flights can
+     * still depend on it.
+     */
+    public FlightScheduler addCompleted( String name ) {
+        return add( name, null, null );
+    }
+
+    /**
+     * Sets a listener that is called with the name of each flight once it has completed.
+     */
+    public FlightScheduler onCompleted( Consumer<String> listener ) {
+        this.onCompleted = listener;
+        return this;
+    }
+
+    /**
+     * Sets where the launcher of each flight acknowledges written rows, e.g. {@link Checkpoint#progress(String)}.
+     */
+    public FlightScheduler progress( Function<String, FlightProgress> progress ) {
+        this.progress = progress;
+        return this;
+    }
+
+    public void run() throws InterruptedException {
+        if ( tasks.isEmpty() ) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( tasks.size() );
+        try {
+            List<CompletableFuture<Void>> completed = new ArrayList<>();
+            for ( FlightTask task : tasks.values() ) {
+                CompletableFuture<?>[] dependencies = Arrays.stream( task.dependsOn )
+                        .map( dependency -> tasks.get( dependency ).writing )
+                        .toArray( CompletableFuture[]::new );
+                completed.add( CompletableFuture.allOf( dependencies ).thenRunAsync( task::launch, executor ) );
+            }
+
+            try {
+                CompletableFuture.allOf( completed.toArray( new CompletableFuture[ 0 ] ) ).get();
+            } catch ( ExecutionException e ) {
+                throw new IllegalStateException( "Flight failed.", e.getCause() );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class FlightTask implements FlightProgress {
+        private final String                  name;
+        private final FlightPlan              flight;
+        private final Payload                 payload;
+        private final String[]                dependsOn;
+        private final CompletableFuture<Void> writing = new CompletableFuture<>();
+        private       FlightProgress          tracked;
+
+        FlightTask( String name, FlightPlan flight, Payload payload, String[] dependsOn ) {
+            this.name = name;
+            this.flight = flight;
+            this.payload = payload;
+            this.dependsOn = dependsOn;
+        }
+
+        void launch() {
+            if ( flight == null ) {
+                logger.info( "Flight {} already completed, skipping it.", name );
+                writing.complete( null );
+                return;
+            }
+            try {
+                logger.info( "Launching flight {}", name );
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                tracked = progress.apply( name );
+                launcher.launch( flight, payload, this );
+                long elapsed = stopwatch.elapsed( TimeUnit.NANOSECONDS );
+                PipelineMetrics.get().histogram( "flight." + name ).record( elapsed );
+                logger.info( "Flight {} completed in {}", name, stopwatch );
+                writing.complete( null );
+                onCompleted.accept( name );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                writing.completeExceptionally( e );
+                throw new CompletionException( "Interrupted while launching flight " + name, e );
+            } catch ( RuntimeException e ) {
+                writing.completeExceptionally( e );
+                throw e;
+            }
+        }
+
+        @Override
+        public long rowsRead() {
+            return tracked.rowsRead();
+        }
+
+        @Override
+        public void acknowledge( long rows ) {
+            tracked.acknowledge( rows );
+        }
+
+        @Override
+        public void started() {
+            if ( writing.complete( null ) ) {
+                logger.info( "Flight {} started writing.", name );
+            }
+        }
+    }
+}
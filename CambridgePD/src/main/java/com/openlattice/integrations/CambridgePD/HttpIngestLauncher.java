@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Posts each batch of a flight to an HTTP endpoint instead of launching it through Shuttle, normally to a
+ * {@link LocalIngestServer} for measuring uploads without network access or credentials.
+ * <p>
+ * The body is the {@link RowBatch} as it is held, gzipped newline JSON of the rows, posted to
+ * {@code <url>/<flight>} with {@code Content-Encoding: gzip}. Payloads that are not batches are serialized first. The
+ * endpoint receives rows, not entities, so it measures transfer and server latency but not entity building. Any
+ * status other than {@code 2xx} fails the call, which {@link AdaptiveBatchLauncher} retries.
+ */
+public class HttpIngestLauncher implements FlightLauncher {
+    private static final int TIMEOUT_MILLIS = 60_000;
+
+    private final String url;
+
+    /**
+     * @param url The base URL, flights are posted to {@code <url>/<flight>}.
+     */
+    public HttpIngestLauncher( String url ) {
+        this.url = url.endsWith( "/" ) ? url : url + "/";
+    }
+
+    @Override
+    public void launch( FlightPlan flight, Payload payload, FlightProgress progress ) {
+        // There are no syncs to start, so flights depending on this one can write right away.
+        progress.started();
+        RowBatch batch = payload instanceof RowBatch ? (RowBatch) payload : batchOf( payload );
+        if ( batch.isEmpty() ) {
+            return;
+        }
+        try {
+            post( new URL( url + flight.getName() ), batch.getCompressed() );
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Unable to post batch of flight " + flight.getName() + " to " + url, e );
+        }
+    }
+
+    private static RowBatch batchOf( Payload payload ) {
+        RowBatch batch = new RowBatch();
+        try ( Stream<Map<String, String>> rows = payload.getPayload() ) {
+            rows.forEach( batch::add );
+        }
+        return batch.finish();
+    }
+
+    private static void post( URL target, byte[] body ) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+        try {
+            connection.setRequestMethod( "POST" );
+            connection.setDoOutput( true );
+            connection.setConnectTimeout( TIMEOUT_MILLIS );
+            connection.setReadTimeout( TIMEOUT_MILLIS );
+            connection.setFixedLengthStreamingMode( body.length );
+            connection.setRequestProperty( "Content-Type", "application/x-ndjson" );
+            connection.setRequestProperty( "Content-Encoding", "gzip" );
+            try ( OutputStream out = connection.getOutputStream() ) {
+                out.write( body );
+            }
+            int status = connection.getResponseCode();
+            // Reading the response to the end lets the connection be reused for the next batch.
+            drain( status / 100 == 2 ? connection.getInputStream() : connection.getErrorStream() );
+            if ( status / 100 != 2 ) {
+                throw new IllegalStateException( "Upload to " + target + " failed with status " + status );
+            }
+        } catch ( IOException | RuntimeException e ) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static void drain( InputStream response ) throws IOException {
+        if ( response == null ) {
+            return;
+        }
+        try ( InputStream in = response ) {
+            byte[] buffer = new byte[ 4096 ];
+            while ( in.read( buffer ) >= 0 ) {
+                // Nothing to keep.
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the rows of a query straight from the database.
+ * <p>
+ * The statement is forward only and read only with an explicit fetch size, so the driver pulls rows in fetch size
+ * chunks (a server side cursor on SQL Server when the connection uses {@code selectMethod=cursor}, see
+ * {@link #cursorUrl(String)}) and rows reach the flights while the query is still running. Like the CSV payloads,
+ * every value is exposed as a string and SQL nulls become empty strings. Rows are {@link CompactRow}s laid out by the
+ * given {@link RowLayout}.
+ * <p>
+ * Drivers turn dates and timestamps into strings like {@code 2018-03-04 05:06:07.0}, which the date parsers and the
+ * {@link Watermark} do not read. Temporal columns are therefore formatted the way the CSV export writes them: with the
+ * pattern given for their label, matched ignoring case, or else {@value #DATE_PATTERN} for {@code DATE} and
+ * {@value #TIMESTAMP_PATTERN} for {@code TIMESTAMP} columns.
+ */
+public class JdbcPayload implements Payload {
+    private static final Logger logger = LoggerFactory.getLogger( JdbcPayload.class );
+
+    static final String DATE_PATTERN      = "MM/dd/yyyy";
+    static final String TIMESTAMP_PATTERN = "M/d/yy H:mm";
+
+    private final ConnectionFactory              connectionFactory;
+    private final String                         sql;
+    private final RowLayout                      layout;
+    private final int                            fetchSize;
+    private final Map<String, DateTimeFormatter> temporalFormats = new TreeMap<>( String.CASE_INSENSITIVE_ORDER );
+
+    /**
+     * Opens connections for a {@link JdbcPayload}, e.g. {@code DataSource::getConnection}.
+     */
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    public JdbcPayload( ConnectionFactory connectionFactory, String sql, RowLayout layout, int fetchSize ) {
+        this( connectionFactory, sql, layout, fetchSize, Collections.emptyMap() );
+    }
+
+    /**
+     * @param temporalPatterns Patterns for formatting temporal columns by label, e.g. {@code MM/dd/yyyy} for a
+     * {@code DOB} stored as a timestamp.
+     */
+    public JdbcPayload(
+            ConnectionFactory connectionFactory,
+            String sql,
+            RowLayout layout,
+            int fetchSize,
+            Map<String, String> temporalPatterns ) {
+        this.connectionFactory = connectionFactory;
+        this.sql = sql;
+        this.layout = layout;
+        this.fetchSize = fetchSize;
+        temporalPatterns.forEach( ( column, pattern ) -> temporalFormats
+                .put( column, DateTimeFormatter.ofPattern( pattern ) ) );
+    }
+
+    /**
+     * @return The format of a column's values, or null if they are read as strings.
+     */
+    private DateTimeFormatter formatOf( String column, int type ) {
+        DateTimeFormatter format = temporalFormats.get( column );
+        boolean temporal = type == Types.DATE || type == Types.TIMESTAMP || type == Types.TIMESTAMP_WITH_TIMEZONE;
+        if ( format != null || !temporal ) {
+            return format;
+        }
+        return DateTimeFormatter.ofPattern( type == Types.DATE ? DATE_PATTERN : TIMESTAMP_PATTERN );
+    }
+
+    /**
+     * Asks the SQL Server driver for a server side cursor unless the URL already picks a select method. Without it the
+     * driver buffers the whole result set regardless of the fetch size. Other URLs are returned unchanged.
+     */
+    public static String cursorUrl( String url ) {
+        if ( url.startsWith( "jdbc:sqlserver:" ) && !url.contains( "selectMethod=" ) ) {
+            return url + ";selectMethod=cursor";
+        }
+        return url;
+    }
+
+    @Override
+    public Stream<Map<String, String>> getPayload() {
+        try {
+            ResultSetSpliterator spliterator = new ResultSetSpliterator( connectionFactory.connect() );
+            return StreamSupport.stream( spliterator, false ).onClose( spliterator::close );
+        } catch ( SQLException e ) {
+            throw new IllegalStateException( "Unable to run query: " + sql, e );
+        }
+    }
+
+    private class ResultSetSpliterator extends Spliterators.AbstractSpliterator<Map<String, String>> {
+        private final Connection          connection;
+        private final Statement           statement;
+        private final ResultSet           resultSet;
+        private final RowSchema           schema;
+        private final int                 columnCount;
+        private final DateTimeFormatter[] formats;
+        private       long                count;
+        private       boolean             closed;
+
+        ResultSetSpliterator( Connection connection ) throws SQLException {
+            super( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL );
+            this.connection = connection;
+            try {
+                connection.setAutoCommit( false );
+                statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+                statement.setFetchSize( fetchSize );
+                resultSet = statement.executeQuery( sql );
+
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                columnCount = metaData.getColumnCount();
+                String[] header = new String[ columnCount ];
+                formats = new DateTimeFormatter[ columnCount ];
+                for ( int i = 0; i < columnCount; ++i ) {
+                    header[ i ] = metaData.getColumnLabel( i + 1 );
+                    formats[ i ] = formatOf( header[ i ], metaData.getColumnType( i + 1 ) );
+                }
+                schema = layout.bind( header );
+            } catch ( SQLException e ) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super Map<String, String>> action ) {
+            if ( closed ) {
+                return false;
+            }
+            try {
+                if ( !resultSet.next() ) {
+                    logger.info( "Read {} rows from the database.", count );
+                    close();
+                    return false;
+                }
+                String[] values = new String[ columnCount ];
+                for ( int i = 0; i < columnCount; ++i ) {
+                    String value = read( i );
+                    values[ i ] = value == null ? "" : value;
+                }
+                ++count;
+                action.accept( schema.newRow( values ) );
+                return true;
+            } catch ( SQLException e ) {
+                close();
+                throw new IllegalStateException( "Unable to read row " + count + " of query: " + sql, e );
+            }
+        }
+
+        private String read( int column ) throws SQLException {
+            if ( formats[ column ] == null ) {
+                return resultSet.getString( column + 1 );
+            }
+            Timestamp value = resultSet.getTimestamp( column + 1 );
+            return value == null ? null : formats[ column ].format( value.toLocalDateTime() );
+        }
+
+        void close() {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            try {
+                resultSet.close();
+                statement.close();
+            } catch ( SQLException e ) {
+                logger.warn( "Unable to close result set.", e );
+            } finally {
+                try {
+                    connection.close();
+                } catch ( SQLException e ) {
+                    logger.warn( "Unable to close connection.", e );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative values, usually latencies in nanoseconds, in the style of HdrHistogram.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} linear buckets, so recorded values are accurate to about 3%
+ * over the whole range of {@code long} at a fixed 15 KB per histogram. Recording is one array increment, which keeps
+ * it cheap enough to time individual transforms.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS         = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+    private final LongAdder       count  = new LongAdder();
+    private final LongAdder       sum    = new LongAdder();
+    private final AtomicLong      max    = new AtomicLong();
+
+    public void record( long value ) {
+        if ( value < 0 ) {
+            value = 0;
+        }
+        counts.incrementAndGet( index( value ) );
+        count.increment();
+        sum.add( value );
+        if ( value > max.get() ) {
+            max.accumulateAndGet( value, Math::max );
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param quantile Between 0 and 1.
+     * @return The highest value of the bucket the quantile falls into, or 0 if nothing was recorded.
+     */
+    public long getValueAtQuantile( double quantile ) {
+        long total = 0;
+        for ( int i = 0; i < BUCKETS; ++i ) {
+            total += counts.get( i );
+        }
+        long rank = (long) Math.ceil( quantile * total );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; ++i ) {
+            seen += counts.get( i );
+            if ( seen > 0 && seen >= rank ) {
+                return Math.min( highestValue( i ), max.get() );
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Non empty buckets by index, for merging histograms recorded by different processes.
+     */
+    public Map<Integer, Long> getBuckets() {
+        Map<Integer, Long> buckets = new TreeMap<>();
+        for ( int i = 0; i < BUCKETS; ++i ) {
+            long n = counts.get( i );
+            if ( n > 0 ) {
+                buckets.put( i, n );
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Adds buckets obtained from {@link #getBuckets()}, along with the sum and max they were recorded with.
+     */
+    public void add( Map<Integer, Long> buckets, long valueSum, long valueMax ) {
+        for ( Map.Entry<Integer, Long> bucket : buckets.entrySet() ) {
+            counts.addAndGet( bucket.getKey(), bucket.getValue() );
+            count.add( bucket.getValue() );
+        }
+        sum.add( valueSum );
+        max.accumulateAndGet( valueMax, Math::max );
+    }
+
+    static int index( long value ) {
+        if ( value < SUB_BUCKETS ) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+        int subBucket = (int) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValue( int index ) {
+        if ( index < SUB_BUCKETS ) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) ( SUB_BUCKETS | ( index & ( SUB_BUCKETS - 1 ) ) ) << ( exponent - SUB_BUCKET_BITS );
+        return lowest + ( 1L << ( exponent - SUB_BUCKET_BITS ) ) - 1;
+    }
+}
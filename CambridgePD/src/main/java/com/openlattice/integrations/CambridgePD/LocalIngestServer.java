@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in for the data upload endpoint, for measuring upload behaviour without network access or credentials. Runs
+ * point {@code --ingest-url} at it, so {@link HttpIngestLauncher} posts the batches here instead of calling Shuttle.
+ * <p>
+ * Every POST is read completely, gunzipped if sent with {@code Content-Encoding: gzip}, counted and answered with
+ * {@code 200}. Lines of the body are counted as rows. {@code GET /stats} returns the counters as JSON.
+ * <p>
+ * To exercise uploaders, the server can add a fixed latency plus a latency per uncompressed megabyte before
+ * answering, and fail a fraction of the requests with {@code 503} without counting their rows.
+ */
+public class LocalIngestServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger( LocalIngestServer.class );
+
+    private final HttpServer      server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final LongAdder       requests = new LongAdder();
+    private final LongAdder       bytes    = new LongAdder();
+    private final LongAdder       rows     = new LongAdder();
+    private final LongAdder       failed   = new LongAdder();
+    private final long            latencyMillis;
+    private final long            millisPerMb;
+    private final double          errorRate;
+
+    public LocalIngestServer( int port, long latencyMillis ) throws IOException {
+        this( port, latencyMillis, 0, 0 );
+    }
+
+    public LocalIngestServer( int port, long latencyMillis, long millisPerMb, double errorRate ) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.millisPerMb = millisPerMb;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create( new InetSocketAddress( "localhost", port ), 0 );
+        this.server.createContext( "/", this::handle );
+        this.server.setExecutor( executor );
+    }
+
+    public LocalIngestServer start() {
+        server.start();
+        logger.info( "Listening on {}", getAddress() );
+        return this;
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    private void handle( HttpExchange exchange ) throws IOException {
+        try {
+            if ( "GET".equals( exchange.getRequestMethod() ) && "/stats".equals( exchange.getRequestURI().getPath() ) ) {
+                respond( exchange, 200, String.format(
+                        "{\"requests\":%d,\"bytes\":%d,\"rows\":%d,\"failed\":%d}",
+                        getRequests(), getBytes(), getRows(), getFailed() ) );
+                return;
+            }
+            if ( !"POST".equals( exchange.getRequestMethod() ) ) {
+                respond( exchange, 405, "" );
+                return;
+            }
+
+            InputStream body = exchange.getRequestBody();
+            if ( "gzip".equalsIgnoreCase( exchange.getRequestHeaders().getFirst( "Content-Encoding" ) ) ) {
+                body = new GZIPInputStream( body );
+            }
+            byte[] buffer = new byte[ 1 << 16 ];
+            long read = 0;
+            long lines = 0;
+            for ( int n = body.read( buffer ); n >= 0; n = body.read( buffer ) ) {
+                read += n;
+                for ( int i = 0; i < n; ++i ) {
+                    if ( buffer[ i ] == '\n' ) {
+                        ++lines;
+                    }
+                }
+            }
+            long latency = latencyMillis + millisPerMb * read / ( 1 << 20 );
+            if ( latency > 0 ) {
+                TimeUnit.MILLISECONDS.sleep( latency );
+            }
+            requests.increment();
+            if ( errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate ) {
+                failed.increment();
+                respond( exchange, 503, "" );
+                return;
+            }
+            bytes.add( read );
+            rows.add( lines );
+            respond( exchange, 200, "" );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            respond( exchange, 503, "" );
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond( HttpExchange exchange, int status, String body ) throws IOException {
+        byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+        exchange.sendResponseHeaders( status, bytes.length == 0 ? -1 : bytes.length );
+        if ( bytes.length > 0 ) {
+            try ( OutputStream out = exchange.getResponseBody() ) {
+                out.write( bytes );
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop( 0 );
+        executor.shutdownNow();
+        logger.info( "Received {} requests, {} bytes, {} rows, failed {} requests",
+                getRequests(),
+                getBytes(),
+                getRows(),
+                getFailed() );
+    }
+
+    /**
+     * Usage: LocalIngestServer [port] [latency millis] [millis per MB] [error rate]
+     */
+    public static void main( String[] args ) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 8080;
+        long latency = args.length > 1 ? Long.parseLong( args[ 1 ] ) : 0;
+        long millisPerMb = args.length > 2 ? Long.parseLong( args[ 2 ] ) : 0;
+        double errorRate = args.length > 3 ? Double.parseDouble( args[ 3 ] ) : 0;
+        LocalIngestServer server = new LocalIngestServer( port, latency, millisPerMb, errorRate ).start();
+        Runtime.getRuntime().addShutdownHook( new Thread( server::close ) );
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Stopwatch;
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Dry run replacement for Shuttle that writes the entities and associations of each flight to
+ * {@code <dir>/<entity set>.ndjson.gz} instead of uploading them.
+ * <p>
+ * Every line is one JSON object. Entities are written as {@code {"id":..,"properties":{fqn:[values]}}}, associations
+ * additionally carry {@code "src"} and {@code "dst"} references of the form {@code {"entitySet":..,"id":..}}. Ids
+ * are the local hashes computed by {@link FlightPlan#evaluate}, so the output of two runs can be compared directly.
+ * <p>
+ * Files are appended to as gzip members, so several runs into the same directory remain readable with
+ * {@code zcat}. Flights sharing an entity set write into the same file concurrently, one line at a time. Every
+ * {@value #ACK_ROWS} rows all files are flushed and the rows written so far are acknowledged.
+ */
+public class LocalSink implements FlightLauncher, Closeable {
+    private static final Logger      logger      = LoggerFactory.getLogger( LocalSink.class );
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final int         BUFFER_SIZE = 1 << 16;
+    private static final int         ACK_ROWS    = 10000;
+
+    private final Path                   dir;
+    private final Map<String, SetWriter> writers = new ConcurrentHashMap<>();
+
+    public LocalSink( Path dir ) throws IOException {
+        this.dir = Files.createDirectories( dir );
+    }
+
+    @Override
+    public void launch( FlightPlan flight, Payload payload, FlightProgress progress ) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        LongAdder rows = new LongAdder();
+        FlightPlan.Output output = FlightRecord.output( flight, record -> writer( record.entitySet ).write( record ) );
+        // There are no syncs to start, so flights depending on this one can write right away.
+        progress.started();
+        payload.getPayload().forEach( row -> {
+            flight.evaluate( new MapRow( row ), output );
+            rows.increment();
+            if ( rows.sum() % ACK_ROWS == 0 ) {
+                flush();
+                progress.acknowledge( progress.rowsRead() );
+            }
+        } );
+        flush();
+        progress.acknowledge( progress.rowsRead() );
+        logger.info( "Wrote {} rows of flight {} to {} in {}", rows.sum(), flight.getName(), dir, stopwatch );
+    }
+
+    private void flush() {
+        for ( SetWriter writer : writers.values() ) {
+            writer.flush();
+        }
+    }
+
+    private SetWriter writer( String entitySet ) {
+        return writers.computeIfAbsent( entitySet, set -> {
+            try {
+                return new SetWriter( dir.resolve( set + ".ndjson.gz" ) );
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        } );
+    }
+
+    /**
+     * Flushes and closes all files, logging how many records were written to each entity set.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for ( Map.Entry<String, SetWriter> entry : writers.entrySet() ) {
+            logger.info( "Entity set {}: {} records", entry.getKey(), entry.getValue().count.sum() );
+            try {
+                entry.getValue().close();
+            } catch ( IOException e ) {
+                failure = e;
+            }
+        }
+        writers.clear();
+        if ( failure != null ) {
+            throw failure;
+        }
+    }
+
+    private static class SetWriter implements Closeable {
+        private final OutputStream  out;
+        private final JsonGenerator json;
+        private final LongAdder     count = new LongAdder();
+
+        SetWriter( Path file ) throws IOException {
+            this.out = new GZIPOutputStream( new BufferedOutputStream( Files.newOutputStream( file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND ), BUFFER_SIZE ), BUFFER_SIZE, true );
+            this.json = jsonFactory.createGenerator( out, JsonEncoding.UTF8 );
+            this.json.disable( JsonGenerator.Feature.AUTO_CLOSE_TARGET );
+            this.json.setRootValueSeparator( null );
+        }
+
+        synchronized void write( FlightRecord record ) {
+            try {
+                record.writeTo( json );
+                count.increment();
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+
+        synchronized void flush() {
+            try {
+                json.flush();
+                out.flush();
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            json.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.adapter.Row;
+
+import java.util.Map;
+
+/**
+ * Exposes a payload row as a Shuttle {@link Row}, for evaluating transforms outside of Shuttle.
+ */
+public class MapRow implements Row {
+    private final Map<String, String> row;
+
+    public MapRow( Map<String, String> row ) {
+        this.row = row;
+    }
+
+    public Map<String, String> getRow() {
+        return row;
+    }
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    public <T> T getAs( String column ) {
+        return (T) row.get( column );
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parses a CSV file with a header row on a fork-join pool.
+ * <p>
+ * The file is memory-mapped and cut into chunks of roughly {@code chunkSize} bytes at record boundaries. Finding a
+ * boundary only needs the quote parity of the bytes before it, so quoted values spanning lines are never split. The
+ * bytes are scanned in parallel in regions of {@code chunkSize}: each scan records the quote parity of its region and
+ * the first line break in it for either parity at its start, see {@link Scan}. Chaining the parities of the regions
+ * then picks the boundaries without reading the file on the consumer thread. Regions are scanned and chunks parsed
+ * ahead of the consumer up to {@link #READ_AHEAD_BYTES} of input, however many threads there are, and never more than
+ * {@code 2 * parallelism} chunks, which keeps memory flat. Smaller chunks keep more threads busy within that budget.
+ * Rows come out in file order unless unordered output is requested, in which case chunks are emitted as soon as they
+ * are parsed. The parsing threads are shut down once the last row has been read, or when the stream is closed.
+ * <p>
+ * Values follow RFC 4180: fields may be quoted, quotes inside quoted fields are doubled and CRLF line endings are
+ * accepted. Like {@code SimplePayload}, empty cells are empty strings and every row has every header column. Rows are
+ * {@link CompactRow}s laid out by the given {@link RowLayout}, built on the parsing threads. Parsed rows and the
+ * time spent per chunk are recorded as {@code csv.rows} and {@code csv.chunk}.
+ */
+public class MappedCsvPayload implements Payload {
+    private static final Logger logger = LoggerFactory.getLogger( MappedCsvPayload.class );
+
+    private static final int  SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK  = ( 1L << SEGMENT_SHIFT ) - 1;
+    private static final byte QUOTE         = '"';
+    private static final byte COMMA         = ',';
+    private static final byte CR            = '\r';
+    private static final byte LF            = '\n';
+
+    /**
+     * Bytes of input parsed ahead of the consumer. Parsed rows take a few times the bytes they were read from.
+     */
+    static final long READ_AHEAD_BYTES = 64L << 20;
+
+    private final Path      path;
+    private final RowLayout layout;
+    private final int       parallelism;
+    private final int       chunkSize;
+    private final int       readAhead;
+    private final boolean   ordered;
+
+    public MappedCsvPayload( Path path, RowLayout layout, int parallelism, int chunkSize, boolean ordered ) {
+        this.path = path;
+        this.layout = layout;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.readAhead = readAhead( parallelism, chunkSize );
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return The number of chunks scanned and parsed ahead of the consumer: as many as fit into
+     * {@link #READ_AHEAD_BYTES}, at least one and at most two per thread.
+     */
+    static int readAhead( int parallelism, int chunkSize ) {
+        return (int) Math.max( 1, Math.min( 2L * parallelism, READ_AHEAD_BYTES / chunkSize ) );
+    }
+
+    @Override
+    public Stream<Map<String, String>> getPayload() {
+        try {
+            ChunkSpliterator spliterator = new ChunkSpliterator( new MappedFile( path ) );
+            return StreamSupport.stream( spliterator, false ).onClose( spliterator::close );
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Unable to map " + path, e );
+        }
+    }
+
+    /**
+     * A read only mapping of a whole file, split into 1 GB segments since a single mapping is limited to 2 GB.
+     */
+    static class MappedFile {
+        private final MappedByteBuffer[] segments;
+        private final long               size;
+
+        MappedFile( Path path ) throws IOException {
+            try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+                size = channel.size();
+                segments = new MappedByteBuffer[ (int) ( ( size + SEGMENT_MASK ) >>> SEGMENT_SHIFT ) ];
+                for ( int i = 0; i < segments.length; ++i ) {
+                    long start = (long) i << SEGMENT_SHIFT;
+                    segments[ i ] = channel.map( FileChannel.MapMode.READ_ONLY,
+                            start,
+                            Math.min( size - start, 1L << SEGMENT_SHIFT ) );
+                }
+            }
+        }
+
+        byte get( long position ) {
+            return segments[ (int) ( position >>> SEGMENT_SHIFT ) ].get( (int) ( position & SEGMENT_MASK ) );
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * Scans the bytes in [start, end) for quotes and line breaks, see {@link Scan}.
+         */
+        Scan scan( long start, long end ) {
+            boolean quoted = false;
+            long[] breaks = { -1, -1 };
+            for ( long position = start; position < end; ++position ) {
+                byte b = get( position );
+                if ( b == QUOTE ) {
+                    quoted = !quoted;
+                } else if ( b == LF && breaks[ quoted ? 1 : 0 ] < 0 ) {
+                    breaks[ quoted ? 1 : 0 ] = position + 1;
+                }
+            }
+            return new Scan( start, quoted, breaks );
+        }
+
+        /**
+         * @return the position right after the first line break at or after {@code from} that is outside of quotes,
+         * given the quote parity at {@code start}, or the end of the file.
+         */
+        long nextRecordBoundary( long start, long from ) {
+            boolean quoted = false;
+            long position = start;
+            while ( position < size ) {
+                byte b = get( position++ );
+                if ( b == QUOTE ) {
+                    quoted = !quoted;
+                } else if ( b == LF && !quoted && position > from ) {
+                    return position;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * The quotes and line breaks of a region of a file. A line break ends a record if the number of quotes before it in
+     * the file is even, which depends on the quote parity at the start of the region. The region's own parity is kept
+     * to compute that of the next region.
+     */
+    static class Scan {
+        private final long    start;
+        private final boolean quoted;
+        private final long[]  breaks;
+
+        Scan( long start, boolean quoted, long[] breaks ) {
+            this.start = start;
+            this.quoted = quoted;
+            this.breaks = breaks;
+        }
+
+        /**
+         * @return Whether the region has an odd number of quotes.
+         */
+        boolean isQuoted() {
+            return quoted;
+        }
+
+        /**
+         * @return The position right after the first line break in the region that is outside of quotes, or -1.
+         */
+        long recordBoundary( boolean quotedAtStart ) {
+            // A break is outside of quotes if the quotes before it in the region even out the parity at its start.
+            return breaks[ quotedAtStart ? 1 : 0 ];
+        }
+    }
+
+    /**
+     * Parses the records in [start, end) of a mapped file.
+     */
+    static class ChunkParser {
+        private final MappedFile file;
+        private       byte[]     buffer = new byte[ 256 ];
+        private       int        length;
+        private       long       position;
+
+        ChunkParser( MappedFile file, long start ) {
+            this.file = file;
+            this.position = start;
+        }
+
+        List<String[]> parse( long end ) {
+            List<String[]> records = new ArrayList<>();
+            List<String> fields = new ArrayList<>();
+            while ( position < end ) {
+                boolean endOfRecord = parseField( end );
+                fields.add( new String( buffer, 0, length, StandardCharsets.UTF_8 ) );
+                if ( endOfRecord ) {
+                    if ( fields.size() > 1 || !fields.get( 0 ).isEmpty() ) {
+                        records.add( fields.toArray( new String[ 0 ] ) );
+                    }
+                    fields.clear();
+                }
+            }
+            return records;
+        }
+
+        /**
+         * Reads one field into the buffer.
+         *
+         * @return true if the field was the last one of its record.
+         */
+        private boolean parseField( long end ) {
+            length = 0;
+            boolean quoted = false;
+            while ( position < end ) {
+                byte b = file.get( position++ );
+                if ( quoted ) {
+                    if ( b == QUOTE ) {
+                        if ( position < end && file.get( position ) == QUOTE ) {
+                            append( QUOTE );
+                            ++position;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        append( b );
+                    }
+                } else if ( b == QUOTE ) {
+                    quoted = true;
+                } else if ( b == COMMA ) {
+                    return false;
+                } else if ( b == LF ) {
+                    return true;
+                } else if ( b != CR || position >= end || file.get( position ) != LF ) {
+                    append( b );
+                }
+            }
+            return true;
+        }
+
+        private void append( byte b ) {
+            if ( length == buffer.length ) {
+                buffer = Arrays.copyOf( buffer, length * 2 );
+            }
+            buffer[ length++ ] = b;
+        }
+    }
+
+    private class ChunkSpliterator extends Spliterators.AbstractSpliterator<Map<String, String>> {
+        private final MappedFile                                         file;
+        private final ForkJoinPool                                       pool;
+        private final RowSchema                                          schema;
+        private final Deque<CompletableFuture<List<Map<String, String>>>> pending = new ArrayDeque<>();
+        private final Deque<CompletableFuture<Scan>>                      scans   = new ArrayDeque<>();
+        private final LongAdder                                          parsed;
+        private final LatencyHistogram                                   chunkLatency;
+        private final long                                               firstChunk;
+        private       long                                               nextChunk;
+        private       long                                               nextScan;
+        private       boolean                                            quoted;
+        private       Iterator<Map<String, String>>                      current = Collections.emptyIterator();
+        private       long                                               count;
+
+        ChunkSpliterator( MappedFile file ) {
+            super( Long.MAX_VALUE, ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL );
+            this.file = file;
+            this.pool = new ForkJoinPool( parallelism );
+            this.parsed = PipelineMetrics.get().counter( "csv.rows" );
+            this.chunkLatency = PipelineMetrics.get().histogram( "csv.chunk" );
+
+            long start = hasByteOrderMark() ? 3 : 0;
+            long headerEnd = file.nextRecordBoundary( start, start );
+            List<String[]> headerRecords = new ChunkParser( file, start ).parse( headerEnd );
+            if ( headerRecords.isEmpty() ) {
+                throw new IllegalStateException( "Missing header row in " + path );
+            }
+            this.schema = layout.bind( headerRecords.get( 0 ) );
+            this.firstChunk = headerEnd;
+            this.nextChunk = headerEnd;
+            this.nextScan = headerEnd;
+            fill();
+        }
+
+        private boolean hasByteOrderMark() {
+            return file.size() >= 3
+                    && file.get( 0 ) == (byte) 0xEF
+                    && file.get( 1 ) == (byte) 0xBB
+                    && file.get( 2 ) == (byte) 0xBF;
+        }
+
+        /**
+         * Queues scans and parses ahead of the consumer. Only waits for a scan if nothing is being parsed.
+         */
+        private void fill() {
+            while ( pending.size() < readAhead && nextChunk < file.size() ) {
+                while ( scans.size() < readAhead && nextScan < file.size() ) {
+                    long start = nextScan;
+                    long end = Math.min( file.size(), start + chunkSize );
+                    nextScan = end;
+                    scans.add( CompletableFuture.supplyAsync( () -> file.scan( start, end ), pool ) );
+                }
+                CompletableFuture<Scan> next = scans.peek();
+                if ( next == null ) {
+                    parse( nextChunk, file.size() );
+                } else if ( next.isDone() || pending.isEmpty() ) {
+                    Scan scan = scans.poll().join();
+                    // The first region starts a chunk, a break in it would only cut off its first record.
+                    long boundary = scan.start == firstChunk ? -1 : scan.recordBoundary( quoted );
+                    quoted ^= scan.isQuoted();
+                    if ( boundary >= 0 ) {
+                        parse( nextChunk, boundary );
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void parse( long start, long end ) {
+            nextChunk = end;
+            pending.add( CompletableFuture.supplyAsync( () -> parseChunk( start, end ), pool ) );
+        }
+
+        private List<Map<String, String>> parseChunk( long start, long end ) {
+            long started = System.nanoTime();
+            List<String[]> records = new ChunkParser( file, start ).parse( end );
+            List<Map<String, String>> rows = new ArrayList<>( records.size() );
+            for ( String[] record : records ) {
+                rows.add( schema.newRow( record ) );
+            }
+            parsed.add( rows.size() );
+            chunkLatency.record( System.nanoTime() - started );
+            return rows;
+        }
+
+        private CompletableFuture<List<Map<String, String>>> nextParsed() {
+            if ( !ordered ) {
+                for ( Iterator<CompletableFuture<List<Map<String, String>>>> it = pending.iterator(); it.hasNext(); ) {
+                    CompletableFuture<List<Map<String, String>>> future = it.next();
+                    if ( future.isDone() ) {
+                        it.remove();
+                        return future;
+                    }
+                }
+            }
+            return pending.poll();
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super Map<String, String>> action ) {
+            while ( !current.hasNext() ) {
+                CompletableFuture<List<Map<String, String>>> next = nextParsed();
+                if ( next == null ) {
+                    logger.info( "Parsed {} rows from {}", count, path );
+                    close();
+                    return false;
+                }
+                current = next.join().iterator();
+                fill();
+            }
+
+            ++count;
+            action.accept( current.next() );
+            return true;
+        }
+
+        void close() {
+            pending.forEach( future -> future.cancel( false ) );
+            pending.clear();
+            scans.forEach( future -> future.cancel( false ) );
+            scans.clear();
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Selects the rows owned by one of several workers sharing the same input.
+ * <p>
+ * Rows are assigned by a hash of the key column, {@code PersonID} or {@code IncNum}, so all rows of a person or
+ * incident are handled by the same worker and its dedup cache. The hash only depends on the value, so every worker
+ * agrees on the assignment without coordinating. Files a worker keeps between runs are suffixed with its partition,
+ * see {@link #file(Path)}.
+ */
+public class Partitioner implements Predicate<Map<String, String>> {
+    public static final String PERSON_KEY   = "PersonID";
+    public static final String INCIDENT_KEY = "IncNum";
+
+    private final int       partition;
+    private final int       partitions;
+    private final String    keyColumn;
+    private final RowColumn key;
+
+    public Partitioner( int partition, int partitions, String keyColumn ) {
+        if ( partitions < 1 || partition < 0 || partition >= partitions ) {
+            throw new IllegalArgumentException( "Invalid partition " + partition + " of " + partitions );
+        }
+        if ( !PERSON_KEY.equals( keyColumn ) && !INCIDENT_KEY.equals( keyColumn ) ) {
+            throw new IllegalArgumentException( "Rows can only be partitioned by " + PERSON_KEY + " or "
+                    + INCIDENT_KEY + ", not " + keyColumn );
+        }
+        this.partition = partition;
+        this.partitions = partitions;
+        this.keyColumn = keyColumn;
+        this.key = new RowColumn( keyColumn );
+    }
+
+    public static Partitioner single() {
+        return new Partitioner( 0, 1, PERSON_KEY );
+    }
+
+    public boolean isPartitioned() {
+        return partitions > 1;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    @Override
+    public boolean test( Map<String, String> row ) {
+        return partitions == 1 || partitionOf( key.get( row ), partitions ) == partition;
+    }
+
+    static int partitionOf( String key, int partitions ) {
+        int hash = key == null ? 0 : key.trim().hashCode();
+        // String.hashCode() is specified, so this is stable across JVMs. Mix it so sequential ids spread evenly.
+        hash *= 0x9E3779B9;
+        return Math.floorMod( hash ^ ( hash >>> 16 ), partitions );
+    }
+
+    /**
+     * @return {@code "-part-<i>-of-<n>"}, or an empty string when there is only one partition.
+     */
+    public String suffix() {
+        return partitions == 1 ? "" : "-part-" + partition + "-of-" + partitions;
+    }
+
+    /**
+     * Inserts the partition suffix before the file's extension, e.g. {@code metrics-part-0-of-4.json}.
+     */
+    public Path file( Path path ) {
+        if ( partitions == 1 ) {
+            return path;
+        }
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf( '.' );
+        String partitioned = dot > 0
+                ? name.substring( 0, dot ) + suffix() + name.substring( dot )
+                : name + suffix();
+        return path.resolveSibling( partitioned );
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms for a run, reported periodically to the log and written to a JSON file at
+ * the end of the run.
+ * <p>
+ * Counters are {@link LongAdder}s and histograms are {@link LatencyHistogram}s, so recording never locks. Callers
+ * look up their metrics once and keep them. Names are dotted, e.g. {@code records.CambridgeSuspects} or
+ * {@code transform.nc.PersonBirthDate}; histograms record nanoseconds.
+ */
+public class PipelineMetrics {
+    private static final Logger          logger  = LoggerFactory.getLogger( PipelineMetrics.class );
+    private static final PipelineMetrics metrics = new PipelineMetrics();
+
+    private final Map<String, LongAdder>        counters     = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms   = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier>     gauges       = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder>        mergedGauges = new ConcurrentHashMap<>();
+    private final Map<String, Long>             reported     = new HashMap<>();
+    private final long                          started      = System.nanoTime();
+    private final AtomicLong                    elapsed      = new AtomicLong();
+    private       long                          lastReport   = started;
+    private       ScheduledExecutorService      reporter;
+
+    /**
+     * The metrics of this run, shared by all stages of the pipeline.
+     */
+    public static PipelineMetrics get() {
+        return metrics;
+    }
+
+    public LongAdder counter( String name ) {
+        return counters.computeIfAbsent( name, n -> new LongAdder() );
+    }
+
+    public LatencyHistogram histogram( String name ) {
+        return histograms.computeIfAbsent( name, n -> new LatencyHistogram() );
+    }
+
+    /**
+     * Registers a value that is sampled when reporting, such as the depth of a queue.
+     */
+    public void gauge( String name, LongSupplier value ) {
+        gauges.put( name, value );
+    }
+
+    public synchronized void startReporting( long period, TimeUnit unit ) {
+        if ( reporter != null || period <= 0 ) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "cambridge-metrics" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        reporter.scheduleAtFixedRate( this::report, period, period, unit );
+    }
+
+    public synchronized void stopReporting() {
+        if ( reporter != null ) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        report();
+    }
+
+    /**
+     * Logs every counter with its rate since the previous report, every gauge, and a summary of every histogram.
+     */
+    public synchronized void report() {
+        long now = System.nanoTime();
+        double seconds = Math.max( 1e-3, ( now - lastReport ) / 1e9 );
+        lastReport = now;
+
+        StringBuilder out = new StringBuilder( "Metrics after " )
+                .append( TimeUnit.NANOSECONDS.toSeconds( now - started ) )
+                .append( " s:" );
+        new TreeMap<>( counters ).forEach( ( name, counter ) -> {
+            long value = counter.sum();
+            long previous = reported.getOrDefault( name, 0L );
+            reported.put( name, value );
+            out.append( String.format( "%n  %-50s %,14d  %,12.0f/s", name, value, ( value - previous ) / seconds ) );
+        } );
+        new TreeMap<>( gauges ).forEach( ( name, gauge ) ->
+                out.append( String.format( "%n  %-50s %,14d", name, gauge.getAsLong() ) ) );
+        new TreeMap<>( histograms ).forEach( ( name, histogram ) -> out.append( String.format(
+                "%n  %-50s n=%,d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+                name,
+                histogram.getCount(),
+                histogram.getMean() / 1e3,
+                histogram.getValueAtQuantile( 0.5 ) / 1e3,
+                histogram.getValueAtQuantile( 0.99 ) / 1e3,
+                histogram.getMax() / 1e3 ) ) );
+        logger.info( out.toString() );
+    }
+
+    /**
+     * Writes all metrics to a JSON file. Histograms include their raw buckets so files from several runs can be
+     * merged.
+     */
+    public void writeJson( Path file ) throws IOException {
+        Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        try ( JsonGenerator json = new JsonFactory().createGenerator( Files.newOutputStream( tmp ),
+                JsonEncoding.UTF8 ) ) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            json.writeNumberField( "elapsedMillis", Math.max( elapsed.get(),
+                    TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - started ) ) );
+
+            json.writeObjectFieldStart( "counters" );
+            for ( Map.Entry<String, LongAdder> counter : new TreeMap<>( counters ).entrySet() ) {
+                json.writeNumberField( counter.getKey(), counter.getValue().sum() );
+            }
+            json.writeEndObject();
+
+            json.writeObjectFieldStart( "gauges" );
+            for ( Map.Entry<String, LongSupplier> gauge : new TreeMap<>( gauges ).entrySet() ) {
+                json.writeNumberField( gauge.getKey(), gauge.getValue().getAsLong() );
+            }
+            json.writeEndObject();
+
+            json.writeObjectFieldStart( "histograms" );
+            for ( Map.Entry<String, LatencyHistogram> entry : new TreeMap<>( histograms ).entrySet() ) {
+                LatencyHistogram histogram = entry.getValue();
+                json.writeObjectFieldStart( entry.getKey() );
+                json.writeNumberField( "count", histogram.getCount() );
+                json.writeNumberField( "sum", histogram.getSum() );
+                json.writeNumberField( "mean", histogram.getMean() );
+                json.writeNumberField( "p50", histogram.getValueAtQuantile( 0.5 ) );
+                json.writeNumberField( "p90", histogram.getValueAtQuantile( 0.9 ) );
+                json.writeNumberField( "p99", histogram.getValueAtQuantile( 0.99 ) );
+                json.writeNumberField( "p999", histogram.getValueAtQuantile( 0.999 ) );
+                json.writeNumberField( "max", histogram.getMax() );
+                json.writeObjectFieldStart( "buckets" );
+                for ( Map.Entry<Integer, Long> bucket : histogram.getBuckets().entrySet() ) {
+                    json.writeNumberField( bucket.getKey().toString(), bucket.getValue() );
+                }
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+
+            json.writeEndObject();
+        }
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        logger.info( "Wrote metrics to {}", file );
+    }
+
+    /**
+     * Adds metrics written by {@link #writeJson(Path)}, e.g. by another worker. Counters and gauges are summed,
+     * histograms are merged bucket by bucket and the elapsed time is the longest of all runs.
+     */
+    public void addJson( Path file ) throws IOException {
+        JsonNode metrics = new ObjectMapper().readTree( file.toFile() );
+        elapsed.accumulateAndGet( metrics.path( "elapsedMillis" ).asLong(), Math::max );
+        metrics.path( "counters" ).fields()
+                .forEachRemaining( counter -> counter( counter.getKey() ).add( counter.getValue().asLong() ) );
+        metrics.path( "gauges" ).fields().forEachRemaining( gauge -> {
+            LongAdder sum = mergedGauges.computeIfAbsent( gauge.getKey(), n -> new LongAdder() );
+            sum.add( gauge.getValue().asLong() );
+            gauges.putIfAbsent( gauge.getKey(), sum::sum );
+        } );
+        metrics.path( "histograms" ).fields().forEachRemaining( entry -> {
+            JsonNode histogram = entry.getValue();
+            Map<Integer, Long> buckets = new HashMap<>();
+            histogram.path( "buckets" ).fields().forEachRemaining(
+                    bucket -> buckets.put( Integer.parseInt( bucket.getKey() ), bucket.getValue().asLong() ) );
+            histogram( entry.getKey() ).add( buckets,
+                    histogram.path( "sum" ).asLong(),
+                    histogram.path( "max" ).asLong() );
+        } );
+    }
+}
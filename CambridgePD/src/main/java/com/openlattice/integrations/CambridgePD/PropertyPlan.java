@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.adapter.Row;
+
+import java.io.Serializable;
+
+/**
+ * A property of an entity or association in a {@link FlightPlan}: either copied from a column or computed by a
+ * transform. Transforms are timed into the {@code transform.<fqn>} histogram of {@link PipelineMetrics}.
+ * <p>
+ * Serializable because {@link FlightPlan#toFlight()} hands {@link #apply} to Shuttle, which takes property values as
+ * {@code SerializableFunction}s. The resolved column and the histogram are looked up again after deserializing.
+ */
+public class PropertyPlan implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final     String            fqn;
+    private final     String            column;
+    private final     PropertyTransform transform;
+    private transient RowColumn         columnIndex;
+    private transient LatencyHistogram  latency;
+
+    PropertyPlan( String fqn, String column, PropertyTransform transform ) {
+        this.fqn = fqn;
+        this.column = column;
+        this.transform = transform;
+    }
+
+    public String getFqn() {
+        return fqn;
+    }
+
+    /**
+     * @return the column the property is copied from, or null if it is computed by a transform.
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    public PropertyTransform getTransform() {
+        return transform;
+    }
+
+    public Object apply( Row row ) {
+        if ( column != null ) {
+            if ( columnIndex == null ) {
+                columnIndex = new RowColumn( column );
+            }
+            return columnIndex.get( row );
+        }
+        if ( latency == null ) {
+            latency = PipelineMetrics.get().histogram( "transform." + fqn );
+        }
+        long start = System.nanoTime();
+        try {
+            return transform.apply( row );
+        } finally {
+            latency.record( System.nanoTime() - start );
+        }
+    }
+
+    /**
+     * Mirrors Shuttle's {@code addProperty( fqn ).value( ... ).ok()} chain.
+     */
+    public static class Builder<T> {
+        private final String            fqn;
+        private final Callback<T>       callback;
+        private       PropertyTransform transform;
+
+        interface Callback<T> {
+            T add( PropertyPlan property );
+        }
+
+        Builder( String fqn, Callback<T> callback ) {
+            this.fqn = fqn;
+            this.callback = callback;
+        }
+
+        public Builder<T> value( PropertyTransform transform ) {
+            this.transform = transform;
+            return this;
+        }
+
+        public T ok() {
+            if ( transform == null ) {
+                throw new IllegalStateException( "Property " + fqn + " has no value." );
+            }
+            return callback.add( new PropertyPlan( fqn, null, transform ) );
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a source payload exactly once and fans each row out to one of several routes, each of which is exposed as its
+ * own {@link Payload}.
+ * <p>
+ * Every route is backed by a bounded queue. When a route's queue stays full for longer than the spill timeout, because
+ * its flight is slower than the others or not running yet, the router appends that route's rows to a temp file
+ * instead. Once the queue has drained to half its capacity the file is closed and queued in place of the rows it
+ * holds, and the route is buffered in memory again. The reader replays each file where it was queued and deletes it,
+ * which keeps rows in source order and heap usage flat regardless of the input size.
+ * <p>
+ * A route nobody is going to read, because its flight already completed or stopped reading it, is
+ * {@link #discard(String) discarded}: its rows are dropped rather than queued or spilled, and once every route is
+ * discarded the source is no longer read.
+ * <p>
+ * Rows routed, spilled and dropped are counted as {@code route.<name>.rows}, {@code route.<name>.spilled} and
+ * {@code route.<name>.dropped}, and the depth of each queue is reported as {@code route.<name>.queue}.
+ */
+public class RoleRouter {
+    private static final Logger logger = LoggerFactory.getLogger( RoleRouter.class );
+
+    private static final long POLL_MILLIS        = 100;
+    private static final long SPILL_AFTER_MILLIS = 250;
+    private static final int  CHECK_DRAIN_ROWS   = 1024;
+
+    private final Payload                                  source;
+    private final Function<Map<String, String>, String>    classifier;
+    private final Map<String, Route>                       routes = new LinkedHashMap<>();
+    private final AtomicInteger                            open   = new AtomicInteger();
+    private       Thread                                   producer;
+    private volatile boolean                               finished;
+    private volatile Throwable                             failure;
+
+    public RoleRouter(
+            Payload source,
+            Function<Map<String, String>, String> classifier,
+            Collection<String> routeNames,
+            int queueCapacity ) {
+        this.source = source;
+        this.classifier = classifier;
+        for ( String routeName : routeNames ) {
+            routes.put( routeName, new Route( routeName, queueCapacity ) );
+        }
+        open.set( routes.size() );
+    }
+
+    public Payload route( String routeName ) {
+        Route route = routes.get( routeName );
+        if ( route == null ) {
+            throw new IllegalArgumentException( "Unknown route " + routeName );
+        }
+        return route;
+    }
+
+    /**
+     * Drops the rows of a route that will not be read, e.g. because its flight already completed in an earlier run.
+     * Routes whose stream is closed are discarded as well.
+     */
+    public void discard( String routeName ) {
+        ( (Route) route( routeName ) ).discard();
+    }
+
+    private synchronized void start() {
+        if ( producer != null ) {
+            return;
+        }
+        producer = new Thread( this::produce, "cambridge-role-router" );
+        producer.setDaemon( true );
+        producer.start();
+    }
+
+    private void produce() {
+        long count = 0;
+        try ( Stream<Map<String, String>> rows = source.getPayload() ) {
+            Iterator<Map<String, String>> it = rows.iterator();
+            while ( open.get() > 0 && it.hasNext() ) {
+                Map<String, String> row = it.next();
+                Route route = routes.get( classifier.apply( row ) );
+                if ( route == null ) {
+                    throw new IllegalStateException( "Classifier produced an unknown route for row " + count );
+                }
+                route.add( row );
+                ++count;
+            }
+            for ( Route route : routes.values() ) {
+                route.finish();
+            }
+            if ( open.get() > 0 ) {
+                logger.info( "Routed {} rows.", count );
+            } else {
+                logger.info( "Stopped routing after {} rows, no route is read anymore.", count );
+            }
+        } catch ( Throwable t ) {
+            logger.error( "Unable to route rows after {} rows.", count, t );
+            failure = t;
+        } finally {
+            finished = true;
+        }
+    }
+
+    private void checkFailure() {
+        if ( failure != null ) {
+            throw new IllegalStateException( "Routing of the source payload failed.", failure );
+        }
+    }
+
+    /**
+     * A route's queue holds rows, and spill files standing in for the rows written to them.
+     */
+    private class Route implements Payload {
+        private final String                name;
+        private final int                   capacity;
+        private final BlockingQueue<Object> queue;
+        private final LongAdder             routed;
+        private final LongAdder             spilled;
+        private final LongAdder             dropped;
+        private final RowCodec              codec = new RowCodec();
+        private       File                  spillFile;
+        private       DataOutputStream      spillOut;
+        private       long                  spillRows;
+        private volatile File               lastSpill;
+        private       boolean               consumed;
+        private volatile boolean            discarded;
+        private       boolean               cleared;
+
+        Route( String name, int queueCapacity ) {
+            this.name = name;
+            this.capacity = queueCapacity;
+            this.queue = new ArrayBlockingQueue<>( queueCapacity );
+            PipelineMetrics metrics = PipelineMetrics.get();
+            this.routed = metrics.counter( "route." + name + ".rows" );
+            this.spilled = metrics.counter( "route." + name + ".spilled" );
+            this.dropped = metrics.counter( "route." + name + ".dropped" );
+            metrics.gauge( "route." + name + ".queue", queue::size );
+        }
+
+        /*
+         * Only called from the producer thread.
+         */
+        void add( Map<String, String> row ) throws IOException, InterruptedException {
+            routed.increment();
+            if ( discarded ) {
+                clear();
+                dropped.increment();
+                return;
+            }
+            if ( spillOut == null && queue.offer( row, SPILL_AFTER_MILLIS, TimeUnit.MILLISECONDS ) ) {
+                return;
+            }
+            if ( spillOut == null ) {
+                spillFile = File.createTempFile( "cambridge-" + name.toLowerCase() + "-", ".rows" );
+                spillFile.deleteOnExit();
+                spillOut = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( spillFile ) ) );
+                spillRows = 0;
+                logger.info( "Route {} is not keeping up, spilling rows to {}", name, spillFile );
+            }
+            codec.write( spillOut, row );
+            spilled.increment();
+            if ( ++spillRows % CHECK_DRAIN_ROWS == 0 && queue.size() <= capacity / 2 ) {
+                File file = spillFile;
+                closeSpill();
+                // Only this thread adds to the queue, so there is room for the file.
+                queue.put( file );
+                logger.info( "Route {} caught up after {} spilled rows.", name, spillRows );
+            }
+        }
+
+        void closeSpill() throws IOException {
+            if ( spillOut != null ) {
+                RowCodec.writeEnd( spillOut );
+                spillOut.close();
+                spillOut = null;
+            }
+        }
+
+        synchronized void discard() {
+            if ( !discarded ) {
+                consumed = true;
+                discarded = true;
+                open.decrementAndGet();
+                if ( !finished ) {
+                    logger.info( "Route {} is not read anymore, dropping its rows.", name );
+                }
+            }
+        }
+
+        /*
+         * Only called from the producer thread, once the route is discarded: deletes the rows held for it.
+         */
+        void clear() throws IOException {
+            if ( cleared ) {
+                return;
+            }
+            cleared = true;
+            closeSpill();
+            if ( spillFile != null ) {
+                Files.deleteIfExists( spillFile.toPath() );
+            }
+            List<Object> held = new ArrayList<>();
+            queue.drainTo( held );
+            for ( Object next : held ) {
+                if ( next instanceof File ) {
+                    Files.deleteIfExists( ( (File) next ).toPath() );
+                }
+            }
+        }
+
+        /**
+         * Closes the spill file still being written, if any, which is read after everything queued.
+         */
+        void finish() throws IOException {
+            if ( discarded ) {
+                clear();
+            } else if ( spillOut != null ) {
+                closeSpill();
+                lastSpill = spillFile;
+            }
+            if ( spilled.sum() > 0 ) {
+                logger.info( "Route {} spilled {} rows to disk.", name, spilled.sum() );
+            }
+        }
+
+        @Override
+        public synchronized Stream<Map<String, String>> getPayload() {
+            if ( discarded ) {
+                throw new IllegalStateException( "Route " + name + " was discarded." );
+            }
+            if ( consumed ) {
+                throw new IllegalStateException( "Route " + name + " can only be consumed once." );
+            }
+            consumed = true;
+            start();
+            RouteSpliterator spliterator = new RouteSpliterator( this );
+            return StreamSupport.stream( spliterator, false ).onClose( spliterator::close );
+        }
+    }
+
+    private class RouteSpliterator extends Spliterators.AbstractSpliterator<Map<String, String>> {
+        private final Route           route;
+        private       File            spillFile;
+        private       DataInputStream spillIn;
+        private       boolean         done;
+
+        RouteSpliterator( Route route ) {
+            super( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL );
+            this.route = route;
+        }
+
+        @Override
+        @SuppressWarnings( "unchecked" )
+        public boolean tryAdvance( Consumer<? super Map<String, String>> action ) {
+            try {
+                while ( !done ) {
+                    if ( spillIn != null ) {
+                        Map<String, String> row = route.codec.read( spillIn );
+                        if ( row != null ) {
+                            action.accept( row );
+                            return true;
+                        }
+                        closeSpill();
+                        continue;
+                    }
+
+                    Object next = route.queue.poll( POLL_MILLIS, TimeUnit.MILLISECONDS );
+                    if ( next instanceof File ) {
+                        openSpill( (File) next );
+                    } else if ( next != null ) {
+                        action.accept( (Map<String, String>) next );
+                        return true;
+                    } else {
+                        checkFailure();
+                        if ( finished && route.queue.isEmpty() ) {
+                            File last = route.lastSpill;
+                            route.lastSpill = null;
+                            if ( last == null ) {
+                                done = true;
+                            } else {
+                                openSpill( last );
+                            }
+                        }
+                    }
+                }
+                return false;
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while waiting for rows on route " + route.name, e );
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( "Unable to read spilled rows for route " + route.name, e );
+            }
+        }
+
+        private void openSpill( File file ) throws IOException {
+            spillFile = file;
+            spillIn = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        }
+
+        private void closeSpill() {
+            if ( spillIn != null ) {
+                try {
+                    spillIn.close();
+                    Files.deleteIfExists( spillFile.toPath() );
+                } catch ( IOException e ) {
+                    logger.warn( "Unable to clean up spill file {}", spillFile, e );
+                }
+                spillIn = null;
+            }
+        }
+
+        void close() {
+            done = true;
+            closeSpill();
+            route.discard();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.io.CountingOutputStream;
+import com.openlattice.shuttle.payload.Payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A batch of rows held as the gzipped request body it is uploaded as: one JSON object per row and line, e.g.
+ * {@code {"IncNum":"1","DOB":"1/2/80"}}.
+ * <p>
+ * Rows are serialized while the batch is collected, so {@link #getBytes()} is the exact size of the uncompressed body
+ * and batches in flight only take the memory of their compressed body. Reading the payload decodes the rows again;
+ * when all rows of the batch were {@link CompactRow}s of the same schema they come back as compact rows of it.
+ */
+public class RowBatch implements Payload {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final int         BUFFER_SIZE = 1 << 16;
+
+    private ByteArrayOutputStream compressed = new ByteArrayOutputStream( BUFFER_SIZE );
+    private CountingOutputStream  body;
+    private JsonGenerator         json;
+    private byte[]                finished;
+    private RowSchema             schema;
+    private boolean               compact    = true;
+    private int                   size;
+
+    public RowBatch() {
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream( compressed, BUFFER_SIZE ) {
+                {
+                    def.setLevel( Deflater.BEST_SPEED );
+                }
+            };
+            this.body = new CountingOutputStream( gzip );
+            this.json = jsonFactory.createGenerator( body, JsonEncoding.UTF8 );
+            this.json.setRootValueSeparator( null );
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Unable to start batch.", e );
+        }
+    }
+
+    public void add( Map<String, String> row ) {
+        if ( finished != null ) {
+            throw new IllegalStateException( "Batch is already finished." );
+        }
+        RowSchema rowSchema = row instanceof CompactRow ? ( (CompactRow) row ).getSchema() : null;
+        if ( size == 0 ) {
+            schema = rowSchema;
+        }
+        compact = compact && rowSchema != null && rowSchema == schema;
+        try {
+            json.writeStartObject();
+            for ( Map.Entry<String, String> entry : row.entrySet() ) {
+                json.writeStringField( entry.getKey(), entry.getValue() );
+            }
+            json.writeEndObject();
+            json.writeRaw( '\n' );
+            // Pushes the generator's buffer into the gzip stream, so the body size is exact after every row.
+            json.flush();
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Unable to add row to batch.", e );
+        }
+        ++size;
+    }
+
+    /**
+     * Completes the compressed body. No rows can be added afterwards.
+     */
+    public RowBatch finish() {
+        if ( finished == null ) {
+            try {
+                json.close();
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( "Unable to finish batch.", e );
+            }
+            finished = compressed.toByteArray();
+            compressed = null;
+            json = null;
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The number of rows in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The size of the uncompressed body in bytes.
+     */
+    public long getBytes() {
+        return body.getCount();
+    }
+
+    /**
+     * @return The gzipped body of a finished batch.
+     */
+    public byte[] getCompressed() {
+        if ( finished == null ) {
+            throw new IllegalStateException( "Batch is not finished yet." );
+        }
+        return finished;
+    }
+
+    /**
+     * @return The rows of a finished batch, decoded from its compressed body.
+     */
+    @Override
+    public Stream<Map<String, String>> getPayload() {
+        List<Map<String, String>> rows = new ArrayList<>( size );
+        try ( JsonParser parser = jsonFactory
+                .createParser( new GZIPInputStream( new ByteArrayInputStream( getCompressed() ), BUFFER_SIZE ) ) ) {
+            while ( parser.nextToken() == JsonToken.START_OBJECT ) {
+                rows.add( compact ? readCompactRow( parser ) : readRow( parser ) );
+            }
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( "Unable to read batch.", e );
+        }
+        return rows.stream();
+    }
+
+    private CompactRow readCompactRow( JsonParser parser ) throws IOException {
+        String[] values = new String[ schema.size() ];
+        while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+            int index = schema.indexOf( parser.getCurrentName() );
+            parser.nextToken();
+            values[ index ] = parser.getValueAsString();
+        }
+        return schema.restoreRow( values );
+    }
+
+    private static Map<String, String> readRow( JsonParser parser ) throws IOException {
+        Map<String, String> row = new LinkedHashMap<>();
+        while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+            String column = parser.getCurrentName();
+            parser.nextToken();
+            row.put( column, parser.getValueAsString() );
+        }
+        return row;
+    }
+}
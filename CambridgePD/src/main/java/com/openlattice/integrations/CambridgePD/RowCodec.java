@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Binary encoding for payload rows that have to leave the heap, e.g. when a route spills to disk.
+ * A stream of rows is terminated by {@link #writeEnd(DataOutput)}.
+ * <p>
+ * A {@link CompactRow} is written as its values in schema order, and read back as a {@link CompactRow} of the same
+ * schema. Schemas are not written out, only their position in this codec, so rows have to be read with the codec that
+ * wrote them. Other rows are written with their column names and read back as maps.
+ */
+final class RowCodec {
+    private static final int END_OF_ROWS = -1;
+    private static final int COMPACT_ROW = -2;
+    private static final int NULL_VALUE  = -1;
+
+    private final List<RowSchema> schemas = new CopyOnWriteArrayList<>();
+
+    void write( DataOutput out, Map<String, String> row ) throws IOException {
+        if ( row instanceof CompactRow ) {
+            CompactRow compact = (CompactRow) row;
+            RowSchema schema = compact.getSchema();
+            out.writeInt( COMPACT_ROW );
+            out.writeInt( schemaIndex( schema ) );
+            for ( int i = 0; i < schema.size(); ++i ) {
+                writeString( out, compact.get( i ) );
+            }
+            return;
+        }
+        out.writeInt( row.size() );
+        for ( Map.Entry<String, String> entry : row.entrySet() ) {
+            writeString( out, entry.getKey() );
+            writeString( out, entry.getValue() );
+        }
+    }
+
+    static void writeEnd( DataOutput out ) throws IOException {
+        out.writeInt( END_OF_ROWS );
+    }
+
+    /**
+     * @return the next row, or null once the end marker has been reached.
+     */
+    Map<String, String> read( DataInput in ) throws IOException {
+        int size = in.readInt();
+        if ( size == END_OF_ROWS ) {
+            return null;
+        }
+        if ( size == COMPACT_ROW ) {
+            RowSchema schema = schemas.get( in.readInt() );
+            String[] values = new String[ schema.size() ];
+            for ( int i = 0; i < values.length; ++i ) {
+                values[ i ] = readString( in );
+            }
+            return schema.restoreRow( values );
+        }
+
+        Map<String, String> row = new LinkedHashMap<>( size * 2 );
+        for ( int i = 0; i < size; ++i ) {
+            String key = readString( in );
+            row.put( key, readString( in ) );
+        }
+        return row;
+    }
+
+    private synchronized int schemaIndex( RowSchema schema ) {
+        for ( int i = 0; i < schemas.size(); ++i ) {
+            if ( schemas.get( i ) == schema ) {
+                return i;
+            }
+        }
+        schemas.add( schema );
+        return schemas.size() - 1;
+    }
+
+    private static void writeString( DataOutput out, String value ) throws IOException {
+        if ( value == null ) {
+            out.writeInt( NULL_VALUE );
+            return;
+        }
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInput in ) throws IOException {
+        int length = in.readInt();
+        if ( length == NULL_VALUE ) {
+            return null;
+        }
+        byte[] bytes = new byte[ length ];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.adapter.Row;
+
+import java.util.Map;
+
+/**
+ * A column read from payload rows. For {@link CompactRow}s the column's index is resolved once per {@link RowSchema}
+ * and values are read and written by index; other rows are accessed by name.
+ */
+public final class RowColumn {
+    private final    String  name;
+    private volatile Binding binding;
+
+    public RowColumn( String name ) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String get( Map<String, String> row ) {
+        if ( !( row instanceof CompactRow ) ) {
+            return row.get( name );
+        }
+        CompactRow compact = (CompactRow) row;
+        int index = indexIn( compact.getSchema() );
+        return index < 0 ? null : compact.get( index );
+    }
+
+    public String get( Row row ) {
+        return row instanceof MapRow ? get( ( (MapRow) row ).getRow() ) : row.getAs( name );
+    }
+
+    public void put( Map<String, String> row, String value ) {
+        if ( row instanceof CompactRow ) {
+            CompactRow compact = (CompactRow) row;
+            int index = indexIn( compact.getSchema() );
+            if ( index >= 0 ) {
+                compact.set( index, value );
+                return;
+            }
+        }
+        row.put( name, value );
+    }
+
+    private int indexIn( RowSchema schema ) {
+        Binding bound = binding;
+        if ( bound == null || bound.schema != schema ) {
+            bound = new Binding( schema, schema.indexOf( name ) );
+            binding = bound;
+        }
+        return bound.index;
+    }
+
+    /**
+     * All columns of a list, e.g. the columns of a {@link DedupKey}.
+     */
+    public static RowColumn[] of( String... names ) {
+        RowColumn[] columns = new RowColumn[ names.length ];
+        for ( int i = 0; i < names.length; ++i ) {
+            columns[ i ] = new RowColumn( names[ i ] );
+        }
+        return columns;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static class Binding {
+        private final RowSchema schema;
+        private final int       index;
+
+        Binding( RowSchema schema, int index ) {
+            this.schema = schema;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.*;
+
+/**
+ * Describes how payloads lay out their rows: the derived columns every row reserves room for, e.g. the
+ * {@link AddressFields} columns, and the low cardinality columns that are dictionary encoded.
+ */
+public class RowLayout {
+    private final List<String> extraColumns;
+    private final Set<String>  dictionaryColumns;
+
+    public RowLayout( Collection<String> extraColumns, Collection<String> dictionaryColumns ) {
+        this.extraColumns = new ArrayList<>( extraColumns );
+        this.dictionaryColumns = new HashSet<>( dictionaryColumns );
+    }
+
+    public RowSchema bind( String[] header ) {
+        return new RowSchema( header, extraColumns, dictionaryColumns );
+    }
+}
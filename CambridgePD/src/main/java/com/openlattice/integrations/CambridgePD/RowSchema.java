@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds a header to column indices once, so rows can be stored as flat {@link CompactRow} arrays.
+ * <p>
+ * Columns listed as dictionary columns are expected to have few distinct values; each distinct value is stored once
+ * and shared by every row. A dictionary stops growing at {@value #MAX_DICTIONARY_SIZE} values, after which new values
+ * are stored as is. Empty values are always shared.
+ */
+public class RowSchema {
+    static final int MAX_DICTIONARY_SIZE = 1 << 12;
+
+    private final String[]                            columns;
+    private final Map<String, Integer>                indices;
+    private final int                                 headerLength;
+    private final ConcurrentHashMap<String, String>[] dictionaries;
+
+    @SuppressWarnings( "unchecked" )
+    RowSchema( String[] header, Collection<String> extraColumns, Collection<String> dictionaryColumns ) {
+        List<String> all = new ArrayList<>( Arrays.asList( header ) );
+        for ( String extra : extraColumns ) {
+            if ( !all.contains( extra ) ) {
+                all.add( extra );
+            }
+        }
+        this.columns = all.toArray( new String[ 0 ] );
+        this.headerLength = header.length;
+        this.indices = new HashMap<>( columns.length * 2 );
+        this.dictionaries = new ConcurrentHashMap[ columns.length ];
+        for ( int i = 0; i < columns.length; ++i ) {
+            indices.putIfAbsent( columns[ i ], i );
+            if ( dictionaryColumns.contains( columns[ i ] ) ) {
+                dictionaries[ i ] = new ConcurrentHashMap<>();
+            }
+        }
+    }
+
+    public int indexOf( Object column ) {
+        Integer index = indices.get( column );
+        return index == null ? -1 : index;
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public String column( int index ) {
+        return columns[ index ];
+    }
+
+    /**
+     * Creates a row from the values of a record in header order. Missing trailing values become empty strings and
+     * extra values are ignored.
+     */
+    public CompactRow newRow( String[] record ) {
+        String[] values = new String[ columns.length ];
+        for ( int i = 0; i < headerLength; ++i ) {
+            values[ i ] = encode( i, i < record.length ? record[ i ] : "" );
+        }
+        return new CompactRow( this, values );
+    }
+
+    /**
+     * Recreates a row from all of its values, e.g. when it is read back from disk. Dictionary values are shared again.
+     */
+    CompactRow restoreRow( String[] values ) {
+        if ( values.length != columns.length ) {
+            throw new IllegalArgumentException( "Expected " + columns.length + " values, got " + values.length );
+        }
+        for ( int i = 0; i < values.length; ++i ) {
+            values[ i ] = encode( i, values[ i ] );
+        }
+        return new CompactRow( this, values );
+    }
+
+    String encode( int index, String value ) {
+        if ( value == null ) {
+            return null;
+        }
+        if ( value.isEmpty() ) {
+            return "";
+        }
+        ConcurrentHashMap<String, String> dictionary = dictionaries[ index ];
+        if ( dictionary == null ) {
+            return value;
+        }
+        String shared = dictionary.get( value );
+        if ( shared != null ) {
+            return shared;
+        }
+        if ( dictionary.size() >= MAX_DICTIONARY_SIZE ) {
+            return value;
+        }
+        shared = dictionary.putIfAbsent( value, value );
+        return shared == null ? value : shared;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.Flight;
+import com.openlattice.shuttle.Shuttle;
+import com.openlattice.shuttle.payload.Payload;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Launches a flight with one {@link Shuttle#launchPayloadFlight(Map)} call, normally for a batch of
+ * {@link AdaptiveBatchLauncher}.
+ * <p>
+ * Shuttle flights have no entity conditions, so the rows of a flight with conditional entities are grouped by
+ * {@link FlightPlan#forRow}, and every group is launched as the flight without the entities whose condition does not
+ * hold, all in the same call. Since these flights share entity sets, a flight that starts syncs is first launched
+ * without any rows, which only starts the syncs it is given to start, and the groups then write into the current
+ * syncs. Flights already in the current syncs, see {@link AdaptiveBatchLauncher}, never start any.
+ * <p>
+ * Once a call returns, the records it launched are counted per entity set with {@link FlightPlan#countRecords}, one
+ * for every row and entity or association of the flight or variant the row was launched with.
+ */
+public class ShuttleLauncher implements FlightLauncher {
+    private final Supplier<Shuttle> shuttles;
+
+    /**
+     * @param shuttles Creates the Shuttle for each call.
+     */
+    public ShuttleLauncher( Supplier<Shuttle> shuttles ) {
+        this.shuttles = shuttles;
+    }
+
+    @Override
+    public void launch( FlightPlan flight, Payload payload, FlightProgress progress ) throws InterruptedException {
+        Shuttle shuttle = shuttles.get();
+        if ( !flight.isConditional() ) {
+            LongAdder rows = new LongAdder();
+            shuttle.launchPayloadFlight( Collections.singletonMap( flight.toFlight(),
+                    () -> payload.getPayload().peek( row -> rows.increment() ) ) );
+            flight.countRecords( rows.sum() );
+            return;
+        }
+        FlightPlan inSync = flight;
+        if ( !flight.isInCurrentSync() ) {
+            shuttle.launchPayloadFlight( Collections.singletonMap( flight.toFlight(), Stream::empty ) );
+            inSync = flight.inCurrentSync();
+        }
+        Map<FlightPlan, List<Map<String, String>>> groups = group( inSync, payload );
+        Map<Flight, Payload> flights = new LinkedHashMap<>();
+        groups.forEach( ( variant, rows ) -> flights.put( variant.toFlight(), rows::stream ) );
+        shuttle.launchPayloadFlight( flights );
+        groups.forEach( ( variant, rows ) -> variant.countRecords( rows.size() ) );
+    }
+
+    /**
+     * @return The rows of the payload, grouped by the flight they are uploaded with.
+     */
+    static Map<FlightPlan, List<Map<String, String>>> group( FlightPlan flight, Payload payload ) {
+        Map<FlightPlan, List<Map<String, String>>> groups = new LinkedHashMap<>();
+        try ( Stream<Map<String, String>> rows = payload.getPayload() ) {
+            rows.forEach( row -> groups
+                    .computeIfAbsent( flight.forRow( new MapRow( row ) ), variant -> new ArrayList<>() )
+                    .add( row ) );
+        }
+        return groups;
+    }
+}
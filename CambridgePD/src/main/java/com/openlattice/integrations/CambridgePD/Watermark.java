@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * High-water mark for incremental runs, persisted in a local properties file.
+ * <p>
+ * The mark is the latest {@code DTReported} seen so far plus the {@code IncNum}s that were processed within the
+ * lookback window before it. A row passes the filter if it was reported after the window starts and its incident has
+ * not been processed yet, so incidents that show up a little late are still picked up without resending the ones
+ * that were already sent. Rows without a parseable {@code DTReported} always pass.
+ * <p>
+ * Two digit years are read into the hundred years ending 20 years from now, so incidents from the 1900s stay in the
+ * past. Rows reported after the start of the run still pass but never move the mark, and a stored mark in the future
+ * is ignored, since either would make every later row look old. Incidents that fall out of the lookback window are
+ * pruned while the run goes on, so a first full run does not keep every {@code IncNum}.
+ * <p>
+ * The updated mark is only written by {@link #save()}, which should be called once the run has completed.
+ */
+public class Watermark implements Predicate<Map<String, String>> {
+    private static final Logger logger = LoggerFactory.getLogger( Watermark.class );
+
+    private static final String HIGH_KEY        = "dtreported";
+    private static final String INCIDENT_PREFIX = "incnum.";
+    private static final int    CACHE_SIZE      = 1 << 16;
+    private static final int    PRUNE_MIN_SIZE  = 1 << 16;
+    private static final int    CENTURY_AHEAD   = 20;
+
+    private static final RowColumn REPORTED = new RowColumn( "DTReported" );
+    private static final RowColumn INC_NUM  = new RowColumn( "IncNum" );
+
+    private static final AdaptiveDateParser<LocalDateTime> reportedParser = new AdaptiveDateParser<>( "DTReported",
+            CACHE_SIZE,
+            pattern -> {
+                DateTimeFormatter formatter = formatter( pattern );
+                return value -> LocalDateTime.parse( value, formatter );
+            },
+            "M/d/yy H:mm", "MM/dd//yy HH:mm" );
+
+    private final Path                       stateFile;
+    private final long                       lookbackHours;
+    private final LocalDateTime              previousHigh;
+    private final Map<String, LocalDateTime> previousIncidents;
+    private final Map<String, LocalDateTime> processed = new HashMap<>();
+    private final LongAdder                  passed    = new LongAdder();
+    private final LongAdder                  skipped   = new LongAdder();
+    private final LongAdder                  future    = new LongAdder();
+    private final LocalDateTime              started   = LocalDateTime.now();
+    private       LocalDateTime              high;
+    private       int                        pruneAt   = PRUNE_MIN_SIZE;
+
+    private Watermark(
+            Path stateFile,
+            long lookbackHours,
+            LocalDateTime previousHigh,
+            Map<String, LocalDateTime> previousIncidents ) {
+        this.stateFile = stateFile;
+        this.lookbackHours = lookbackHours;
+        this.previousHigh = previousHigh;
+        this.previousIncidents = previousIncidents;
+        this.high = previousHigh;
+        processed.putAll( previousIncidents );
+    }
+
+    /**
+     * Loads the mark stored in the state file. With {@code fullResync}, or when there is no state file yet, every row
+     * passes but a new mark is still recorded.
+     */
+    public static Watermark load( Path stateFile, long lookbackHours, boolean fullResync ) throws IOException {
+        if ( fullResync || !Files.exists( stateFile ) ) {
+            logger.info( "No watermark in use, processing all rows." );
+            return new Watermark( stateFile, lookbackHours, null, new HashMap<>() );
+        }
+
+        Properties properties = new Properties();
+        try ( Reader reader = Files.newBufferedReader( stateFile ) ) {
+            properties.load( reader );
+        }
+
+        LocalDateTime high = LocalDateTime.parse( properties.getProperty( HIGH_KEY ) );
+        if ( high.isAfter( LocalDateTime.now() ) ) {
+            logger.warn( "Ignoring watermark {} in {}, it is in the future. Processing all rows.", high, stateFile );
+            return new Watermark( stateFile, lookbackHours, null, new HashMap<>() );
+        }
+        Map<String, LocalDateTime> incidents = new HashMap<>();
+        for ( String key : properties.stringPropertyNames() ) {
+            if ( key.startsWith( INCIDENT_PREFIX ) ) {
+                incidents.put( key.substring( INCIDENT_PREFIX.length() ),
+                        LocalDateTime.parse( properties.getProperty( key ) ) );
+            }
+        }
+        logger.info( "Processing rows reported after {} minus {} hours, {} incidents already processed.",
+                high,
+                lookbackHours,
+                incidents.size() );
+        return new Watermark( stateFile, lookbackHours, high, incidents );
+    }
+
+    /**
+     * @return Whether a stored mark is in use, so only rows past it are processed.
+     */
+    public boolean isIncremental() {
+        return previousHigh != null;
+    }
+
+    @Override
+    public boolean test( Map<String, String> row ) {
+        LocalDateTime reported = reportedParser.parse( REPORTED.get( row ) );
+        String incNum = INC_NUM.get( row );
+
+        boolean isNew = reported == null || previousHigh == null
+                || ( !reported.isBefore( previousHigh.minusHours( lookbackHours ) )
+                && !previousIncidents.containsKey( incNum ) );
+
+        if ( isNew ) {
+            passed.increment();
+            if ( reported != null ) {
+                record( reported, incNum );
+            }
+        } else {
+            skipped.increment();
+        }
+        return isNew;
+    }
+
+    /**
+     * Reads two digit years into the hundred years ending {@value #CENTURY_AHEAD} years from now.
+     */
+    static DateTimeFormatter formatter( String pattern ) {
+        int year = pattern.indexOf( "yy" );
+        LocalDate base = LocalDate.now().plusYears( CENTURY_AHEAD ).minusYears( 99 );
+        return new DateTimeFormatterBuilder()
+                .appendPattern( pattern.substring( 0, year ) )
+                .appendValueReduced( ChronoField.YEAR, 2, 2, base )
+                .appendPattern( pattern.substring( year + 2 ) )
+                .toFormatter();
+    }
+
+    private synchronized void record( LocalDateTime reported, String incNum ) {
+        if ( reported.isAfter( started ) ) {
+            future.increment();
+            return;
+        }
+        if ( high == null || reported.isAfter( high ) ) {
+            high = reported;
+        }
+        processed.merge( incNum, reported, ( a, b ) -> a.isAfter( b ) ? a : b );
+        if ( processed.size() >= pruneAt ) {
+            prune();
+            pruneAt = Math.max( PRUNE_MIN_SIZE, processed.size() * 2 );
+        }
+    }
+
+    /**
+     * Drops the incidents before the lookback window of the current mark. The mark only moves forward, so they would
+     * not be saved anyway.
+     */
+    private void prune() {
+        LocalDateTime windowStart = high.minusHours( lookbackHours );
+        processed.values().removeIf( reported -> reported.isBefore( windowStart ) );
+    }
+
+    /**
+     * Persists the advanced mark, keeping only the incidents that fall into the lookback window of the new mark.
+     */
+    public synchronized void save() throws IOException {
+        logger.info( "Watermark passed {} rows and skipped {} rows.", passed.sum(), skipped.sum() );
+        if ( future.sum() > 0 ) {
+            logger.warn( "{} rows were reported after {} and did not move the watermark.", future.sum(), started );
+        }
+        if ( high == null ) {
+            return;
+        }
+
+        prune();
+        Properties properties = new Properties();
+        properties.setProperty( HIGH_KEY, high.toString() );
+        processed.forEach( ( incNum, reported ) -> properties.setProperty( INCIDENT_PREFIX + incNum,
+                reported.toString() ) );
+
+        Path tmp = stateFile.resolveSibling( stateFile.getFileName() + ".tmp" );
+        try ( Writer writer = Files.newBufferedWriter( tmp ) ) {
+            properties.store( writer, "Cambridge incremental watermark" );
+        }
+        Files.move( tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        logger.info( "Saved watermark {} to {}", high, stateFile );
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveBatchLauncherTest {
+    private static final FlightPlan FLIGHT = FlightPlan.newFlight( "test" )
+            .createEntities()
+            .addEntity( "row" )
+            .to( "TestRows" )
+            .addProperty( "general.id", "id" )
+            .endEntity()
+            .endEntities()
+            .createAssociations()
+            .endAssociations()
+            .done();
+
+    private static List<Map<String, String>> rows( int count ) {
+        List<Map<String, String>> rows = new ArrayList<>( count );
+        for ( int i = 0; i < count; ++i ) {
+            rows.add( ImmutableMap.of( "id", Integer.toString( i ), "value", "row number " + i ) );
+        }
+        return rows;
+    }
+
+    /**
+     * Counts rows read and keeps the highest acknowledged offset, like a checkpoint does.
+     */
+    private static class RecordingProgress implements FlightProgress {
+        private final AtomicLong read         = new AtomicLong();
+        private final AtomicLong acknowledged = new AtomicLong();
+        private final AtomicLong startedAt    = new AtomicLong( -1 );
+
+        @Override
+        public long rowsRead() {
+            return read.get();
+        }
+
+        @Override
+        public void acknowledge( long rows ) {
+            assertTrue( "Acknowledgements only move forward", rows >= acknowledged.get() );
+            acknowledged.set( rows );
+        }
+
+        @Override
+        public void started() {
+            startedAt.compareAndSet( -1, read.get() );
+        }
+    }
+
+    private static void launch(
+            AdaptiveBatchLauncher launcher,
+            List<Map<String, String>> rows,
+            RecordingProgress progress ) throws InterruptedException {
+        try ( AdaptiveBatchLauncher closing = launcher ) {
+            closing.launch( FLIGHT, () -> rows.stream().peek( row -> progress.read.incrementAndGet() ), progress );
+        }
+    }
+
+    @Test
+    public void uploadsEveryRowOnceInOrderDespiteErrors() throws InterruptedException {
+        List<Map<String, String>> rows = rows( 5000 );
+        StandInLauncher standIn = new StandInLauncher( 0, 0, 0.3, 42 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 4 << 10, 1 << 10, 16 << 10, 1, TimeUnit.SECONDS );
+        RecordingProgress progress = new RecordingProgress();
+
+        launch( new AdaptiveBatchLauncher( standIn, batchSize, 20, 1, 1 ), rows, progress );
+
+        assertEquals( rows, standIn.getRows() );
+        assertTrue( "Expected injected failures", standIn.getFailures() > 0 );
+        assertEquals( "Only the first batch starts syncs", 1, standIn.getSyncsStarted() );
+        assertEquals( rows.size(), progress.acknowledged.get() );
+    }
+
+    @Test
+    public void uploadsBatchesConcurrentlyAfterTheFirst() throws InterruptedException {
+        List<Map<String, String>> rows = rows( 5000 );
+        StandInLauncher standIn = new StandInLauncher( 20, 0, 0, 1 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 4 << 10, 4 << 10, 4 << 10, 1, TimeUnit.SECONDS );
+        RecordingProgress progress = new RecordingProgress();
+
+        launch( new AdaptiveBatchLauncher( standIn, batchSize, 1, 4, 6 ), rows, progress );
+
+        assertEquals( rows.size(), standIn.getRows().size() );
+        assertEquals( new HashSet<>( rows ), new HashSet<>( standIn.getRows() ) );
+        assertEquals( 4, standIn.getMaxRunning() );
+        assertEquals( 1, standIn.getSyncsStarted() );
+        assertTrue( "Started once the first batch was uploaded", progress.startedAt.get() > 0 );
+        assertTrue( progress.startedAt.get() < rows.size() );
+        assertEquals( rows.size(), progress.acknowledged.get() );
+    }
+
+    @Test
+    public void writesIntoTheCurrentSyncsWhenNotStartingSyncs() throws InterruptedException {
+        List<Map<String, String>> rows = rows( 5000 );
+        StandInLauncher standIn = new StandInLauncher( 0, 0, 0, 1 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 4 << 10, 4 << 10, 4 << 10, 1, TimeUnit.SECONDS );
+        RecordingProgress progress = new RecordingProgress();
+
+        launch( new AdaptiveBatchLauncher( standIn, batchSize, 1, 2, 4, false ), rows, progress );
+
+        assertEquals( rows.size(), standIn.getRows().size() );
+        assertEquals( 0, standIn.getSyncsStarted() );
+        assertEquals( "Started before reading any row", 0, progress.startedAt.get() );
+    }
+
+    @Test
+    public void startsEachSyncOncePerRun() throws InterruptedException {
+        StandInLauncher standIn = new StandInLauncher( 0, 0, 0, 1 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 4 << 10, 4 << 10, 4 << 10, 1, TimeUnit.SECONDS );
+        LatencyHistogram latency = PipelineMetrics.get()
+                .histogram( "upload.entitySet." + FLIGHT.getEntities().get( 0 ).getEntitySet() );
+        long uploads = latency.getCount();
+        try ( AdaptiveBatchLauncher launcher = new AdaptiveBatchLauncher( standIn, batchSize, 1, 1, 1 ) ) {
+            launcher.launch( FLIGHT, () -> rows( 1000 ).stream(), new RecordingProgress() );
+            launcher.launch( FLIGHT, () -> rows( 1000 ).stream(), new RecordingProgress() );
+        }
+
+        assertEquals( 2000, standIn.getRows().size() );
+        assertEquals( 1, standIn.getSyncsStarted() );
+        assertEquals( standIn.getLaunches(), latency.getCount() - uploads );
+    }
+
+    @Test
+    public void boundsTheBatchesInFlight() throws InterruptedException {
+        StandInLauncher standIn = new StandInLauncher( 10, 0, 0, 1 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 4 << 10, 4 << 10, 4 << 10, 1, TimeUnit.SECONDS );
+
+        launch( new AdaptiveBatchLauncher( standIn, batchSize, 1, 8, 3 ), rows( 5000 ), new RecordingProgress() );
+
+        assertEquals( 3, standIn.getMaxRunning() );
+    }
+
+    @Test
+    public void shrinksBatchesWhileTheServerIsSlow() throws InterruptedException {
+        StandInLauncher standIn = new StandInLauncher( 20, 0, 0, 1 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 64 << 10, 1 << 10, 1 << 20, 5, TimeUnit.MILLISECONDS );
+
+        launch( new AdaptiveBatchLauncher( standIn, batchSize, 1, 1, 1 ), rows( 20000 ), new RecordingProgress() );
+
+        assertEquals( 1 << 10, batchSize.get() );
+    }
+
+    @Test
+    public void growsBatchesWhileTheServerKeepsUp() throws InterruptedException {
+        StandInLauncher standIn = new StandInLauncher( 0, 0, 0, 1 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 1 << 10, 1 << 10, 64 << 10, 1, TimeUnit.SECONDS );
+
+        launch( new AdaptiveBatchLauncher( standIn, batchSize, 1, 1, 1 ), rows( 50000 ), new RecordingProgress() );
+
+        assertEquals( 64 << 10, batchSize.get() );
+    }
+
+    @Test
+    public void acknowledgesOnlyUploadedBatchesWhenGivingUp() throws InterruptedException {
+        List<Map<String, String>> rows = rows( 5000 );
+        StandInLauncher standIn = new StandInLauncher( 0, 0, 0, 1 ).failAfter( 3 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 4 << 10, 4 << 10, 4 << 10, 1, TimeUnit.SECONDS );
+        RecordingProgress progress = new RecordingProgress();
+
+        try {
+            launch( new AdaptiveBatchLauncher( standIn, batchSize, 3, 1, 1 ), rows, progress );
+            fail( "Expected the flight to fail." );
+        } catch ( IllegalStateException e ) {
+            assertEquals( 3 + 3, standIn.getLaunches() );
+        }
+        assertEquals( standIn.getRows().size(), progress.acknowledged.get() );
+        assertEquals( rows.subList( 0, standIn.getRows().size() ), standIn.getRows() );
+    }
+}
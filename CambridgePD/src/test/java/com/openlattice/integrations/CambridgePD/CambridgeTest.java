@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CambridgeTest {
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory( "cambridge" );
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try ( Stream<Path> files = Files.walk( directory ) ) {
+            for ( Path file : files.sorted( Comparator.reverseOrder() ).collect( Collectors.toList() ) ) {
+                Files.delete( file );
+            }
+        }
+    }
+
+    @Test
+    public void startsSyncsOnlyOnAFullRun() throws IOException {
+        Partitioner single = Partitioner.single();
+        Path watermarkFile = directory.resolve( "watermark" );
+        assertTrue( Cambridge.startsSyncs( single, null, null, null ) );
+        assertTrue( "Without a stored mark every row is sent",
+                Cambridge.startsSyncs( single, Watermark.load( watermarkFile, 48, false ), null, null ) );
+        assertFalse( Cambridge.startsSyncs( new Partitioner( 0, 2, Partitioner.PERSON_KEY ), null, null, null ) );
+
+        Files.write( watermarkFile,
+                Collections.singletonList( "dtreported=" + LocalDateTime.now().minusDays( 1 ) ) );
+        assertFalse( "A watermarked run only sends new rows",
+                Cambridge.startsSyncs( single, Watermark.load( watermarkFile, 48, false ), null, null ) );
+        assertTrue( "A full resync sends every row",
+                Cambridge.startsSyncs( single, Watermark.load( watermarkFile, 48, true ), null, null ) );
+
+        Path input = Files.write( directory.resolve( "incidents.csv" ), Collections.singletonList( "IncNum" ) );
+        Path checkpoints = directory.resolve( "checkpoints" );
+        Checkpoint checkpoint = Checkpoint.load( checkpoints, input, 1 );
+        assertTrue( Cambridge.startsSyncs( single, null, null, checkpoint ) );
+        checkpoint.track( "SUSPECT", Stream::empty );
+        checkpoint.markComplete( "SUSPECT" );
+        assertFalse( "A resumed run only sends what the failed run left over",
+                Cambridge.startsSyncs( single, null, null, Checkpoint.load( checkpoints, input, 1 ) ) );
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChangeDetectionPayloadTest {
+    private static final List<DedupKey> KEYS = Cambridge.dedupKeys( "CambridgePeople_1",
+            "CambridgeSuspects",
+            "CambridgeAppearIn" );
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory( "change-index" );
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try ( Stream<Path> files = Files.list( directory ) ) {
+            for ( Path file : files.collect( Collectors.toList() ) ) {
+                Files.delete( file );
+            }
+        }
+        Files.delete( directory );
+    }
+
+    private static Map<String, String> row( String incident, String height ) {
+        Map<String, String> row = new HashMap<>();
+        row.put( "PersonID", "P1" );
+        row.put( "First", "JANE" );
+        row.put( "Last", "DOE" );
+        row.put( "Role", "SUSPECT" );
+        row.put( "Height", height );
+        row.put( "IncNum", incident );
+        row.put( "Offense", "LARCENY" );
+        return row;
+    }
+
+    /**
+     * Runs the rows through change detection against the index of the previous run and commits the new index.
+     *
+     * @return The incidents of the rows that were let through.
+     */
+    @SafeVarargs
+    private final List<String> run( Map<String, String>... rows ) throws IOException {
+        try ( ChangeIndex index = ChangeIndex.open( directory.resolve( "index" ), false ) ) {
+            List<String> changed;
+            try ( Stream<Map<String, String>> payload =
+                    new ChangeDetectionPayload( () -> Arrays.stream( rows ), index, KEYS ).getPayload() ) {
+                changed = payload.map( row -> row.get( "IncNum" ) ).collect( Collectors.toList() );
+            }
+            index.commit();
+            return changed;
+        }
+    }
+
+    @Test
+    public void keepsThePerIncidentValuesOfAPersonApart() throws IOException {
+        assertEquals( Arrays.asList( "18-1", "18-2" ), run( row( "18-1", "70" ), row( "18-2", "71" ) ) );
+        assertEquals( Collections.emptyList(), run( row( "18-1", "70" ), row( "18-2", "71" ) ) );
+        assertEquals( Collections.singletonList( "18-2" ), run( row( "18-1", "70" ), row( "18-2", "72" ) ) );
+        assertEquals( Collections.emptyList(), run( row( "18-2", "72" ), row( "18-1", "70" ) ) );
+    }
+
+    @Test
+    public void remembersEntitiesThatWereNotSeenInARun() throws IOException {
+        assertEquals( Arrays.asList( "18-1", "18-2" ), run( row( "18-1", "70" ), row( "18-2", "71" ) ) );
+        // E.g. an incremental run where the watermark left out the first incident.
+        assertEquals( Collections.emptyList(), run( row( "18-2", "71" ) ) );
+        assertEquals( Collections.emptyList(), run( row( "18-1", "70" ), row( "18-2", "71" ) ) );
+    }
+}
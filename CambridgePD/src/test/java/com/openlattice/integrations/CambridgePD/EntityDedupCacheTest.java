@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class EntityDedupCacheTest {
+    private EntityDedupCache cache;
+
+    @After
+    public void close() throws IOException {
+        cache.close();
+    }
+
+    @Test
+    public void remembersEntitiesAcrossSpilledAndMergedRuns() {
+        cache = new EntityDedupCache( 64, 4 );
+        for ( int i = 0; i < 10000; ++i ) {
+            assertTrue( cache.markSeen( "TestPeople", Integer.toString( i ) ) );
+            assertTrue( "At most 4 runs are probed", cache.getRunCount() <= 4 );
+        }
+        for ( int i = 0; i < 10000; ++i ) {
+            assertFalse( cache.markSeen( "TestPeople", Integer.toString( i ) ) );
+        }
+        assertTrue( cache.markSeen( "TestPeople", "10000" ) );
+        assertTrue( cache.markSeen( "TestIncidents", "0" ) );
+        assertEquals( 10002L, (long) cache.getMisses().values().stream().mapToLong( Long::longValue ).sum() );
+        assertEquals( 10000L, (long) cache.getHits().get( "TestPeople" ) );
+    }
+
+    @Test
+    public void keepsRunsBelowTheLimitWithoutMerging() {
+        cache = new EntityDedupCache( 64, 100 );
+        for ( int i = 0; i < 1000; ++i ) {
+            cache.markSeen( "TestPeople", Integer.toString( i ) );
+        }
+        assertTrue( cache.getRunCount() > 4 );
+        for ( int i = 0; i < 1000; ++i ) {
+            assertFalse( cache.markSeen( "TestPeople", Integer.toString( i ) ) );
+        }
+    }
+}
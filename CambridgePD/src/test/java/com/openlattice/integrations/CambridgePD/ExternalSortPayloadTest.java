@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ExternalSortPayloadTest {
+    private static final int ROWS = 1000;
+
+    private Path          directory;
+    private AtomicInteger read;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory( "external-sort" );
+        read = new AtomicInteger();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try ( Stream<Path> files = Files.list( directory ) ) {
+            for ( Path file : files.collect( Collectors.toList() ) ) {
+                Files.delete( file );
+            }
+        }
+        Files.delete( directory );
+    }
+
+    /**
+     * Two rows for each of 5 incidents of each of 100 people, every incident involving all people. People come in
+     * reverse order, so with a budget of a few rows the sort spills and merges more than one pass of runs.
+     */
+    private ExternalSortPayload sorted( long memoryBytes ) {
+        Payload source = () -> IntStream.range( 0, ROWS ).mapToObj( i -> {
+            read.incrementAndGet();
+            Map<String, String> row = new HashMap<>();
+            row.put( "PersonID", String.format( "P%03d", 99 - i % 100 ) );
+            row.put( "IncNum", "I" + ( i / 100 ) % 5 );
+            row.put( "Sequence", Integer.toString( i ) );
+            return row;
+        } );
+        return new ExternalSortPayload( source, memoryBytes, directory, "PersonID", "IncNum" );
+    }
+
+    private long files() throws IOException {
+        try ( Stream<Path> files = Files.list( directory ) ) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void readsNothingUntilTheFirstRowIsPulled() throws IOException {
+        try ( Stream<Map<String, String>> rows = sorted( 1000 ).getPayload() ) {
+            assertEquals( 0, read.get() );
+            assertEquals( 0, files() );
+            assertEquals( "P000", rows.findFirst().get().get( "PersonID" ) );
+            assertEquals( ROWS, read.get() );
+        }
+        assertEquals( 0, files() );
+    }
+
+    @Test
+    public void sortsStablyAndDeletesRunsOnceMerged() throws IOException {
+        try ( Stream<Map<String, String>> payload = sorted( 1000 ).getPayload() ) {
+            Iterator<Map<String, String>> rows = payload.iterator();
+            Map<String, String> previous = null;
+            int count = 0;
+            while ( rows.hasNext() ) {
+                Map<String, String> row = rows.next();
+                if ( previous != null ) {
+                    int byKey = ExternalSortPayload.byColumns( "PersonID", "IncNum" ).compare( previous, row );
+                    assertTrue( byKey <= 0 );
+                    if ( byKey == 0 ) {
+                        assertTrue( Integer.parseInt( previous.get( "Sequence" ) )
+                                < Integer.parseInt( row.get( "Sequence" ) ) );
+                    }
+                }
+                previous = row;
+                ++count;
+            }
+            assertEquals( ROWS, count );
+            assertEquals( "Runs are deleted before the stream is closed", 0, files() );
+        }
+    }
+
+    @Test
+    public void keepsRowsEqualInTheLeadingSortColumnAdjacent() {
+        try ( Stream<Map<String, String>> rows = sorted( 1000 ).getPayload() ) {
+            List<String> people = rows.map( row -> row.get( "PersonID" ) ).collect( Collectors.toList() );
+            long runs = 1;
+            for ( int i = 1; i < people.size(); ++i ) {
+                if ( !people.get( i ).equals( people.get( i - 1 ) ) ) {
+                    ++runs;
+                }
+            }
+            assertEquals( 100, runs );
+        }
+    }
+}
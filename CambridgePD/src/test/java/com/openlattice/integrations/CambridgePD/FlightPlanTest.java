@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FlightPlanTest {
+    private static final FlightPlan UNIFIED = Cambridge.unifiedFlight();
+
+    private static Map<String, String> row( String personId, String role ) {
+        Map<String, String> row = new HashMap<>();
+        row.put( "PersonID", personId );
+        row.put( "First", "JANE" );
+        row.put( "Last", "DOE" );
+        row.put( "Sex", "F" );
+        row.put( "Role", role );
+        row.put( "IncNum", "18-" + personId );
+        row.put( "Street", "MASS AVE" );
+        row.put( "City", "CAMBRIDGE" );
+        return row;
+    }
+
+    private static List<String> evaluate( FlightPlan flight, Map<String, String> row ) {
+        List<String> records = new ArrayList<>();
+        flight.evaluate( new MapRow( row ), new FlightPlan.Output() {
+            @Override
+            public void entity( EntityPlan entity, String id, Map<String, Object> properties ) {
+                records.add( entity.getAlias() + " " + id + " " + properties );
+            }
+
+            @Override
+            public void association(
+                    AssociationPlan association,
+                    String srcId,
+                    String dstId,
+                    Map<String, Object> properties ) {
+                records.add( association.getAlias() + " " + srcId + "->" + dstId + " " + properties );
+            }
+        } );
+        return records;
+    }
+
+    private static Set<String> entities( FlightPlan flight ) {
+        return flight.getEntities().stream().map( EntityPlan::getAlias ).collect( Collectors.toSet() );
+    }
+
+    @Test
+    public void leavesOutEntitiesWhoseConditionDoesNotHold() {
+        for ( String role : Arrays.asList( "SUSPECT", "DEFENDANT", "WITNESS" ) ) {
+            MapRow row = new MapRow( row( "1", role ) );
+            FlightPlan variant = UNIFIED.forRow( row );
+            Set<String> kept = entities( variant );
+
+            for ( EntityPlan entity : UNIFIED.getEntities() ) {
+                boolean holds = entity.getWhen() == null || entity.getWhen().test( row );
+                assertEquals( role + " " + entity.getAlias(), holds, kept.contains( entity.getAlias() ) );
+            }
+            for ( AssociationPlan association : UNIFIED.getAssociations() ) {
+                boolean bothEnds = kept.contains( association.getSrc() ) && kept.contains( association.getDst() );
+                assertEquals( role + " " + association.getAlias(),
+                        bothEnds,
+                        variant.getAssociations().contains( association ) );
+            }
+        }
+
+        assertTrue( entities( UNIFIED.forRow( new MapRow( row( "1", "SUSPECT" ) ) ) ).contains( "suspects" ) );
+        assertFalse( entities( UNIFIED.forRow( new MapRow( row( "1", "SUSPECT" ) ) ) ).contains( "defendants" ) );
+        assertFalse( entities( UNIFIED.forRow( new MapRow( row( "1", "WITNESS" ) ) ) ).contains( "people" ) );
+    }
+
+    @Test
+    public void producesWhatTheFullFlightProducesForTheRow() {
+        for ( String role : Arrays.asList( "SUSPECT", "DEFENDANT", "WITNESS" ) ) {
+            Map<String, String> row = row( "1", role );
+            List<String> full = evaluate( UNIFIED, row );
+            assertFalse( full.isEmpty() );
+            assertEquals( role, full, evaluate( UNIFIED.forRow( new MapRow( row ) ), row ) );
+        }
+    }
+
+    @Test
+    public void sharesTheFlightOfRowsWithTheSameConditions() {
+        List<Map<String, String>> rows = Arrays.asList( row( "1", "SUSPECT" ),
+                row( "2", "WITNESS" ),
+                row( "3", "SUSPECT" ),
+                row( "4", "DEFENDANT" ),
+                row( "5", "VICTIM" ) );
+
+        Map<FlightPlan, List<Map<String, String>>> groups = ShuttleLauncher.group( UNIFIED, rows::stream );
+
+        assertEquals( 3, groups.size() );
+        assertEquals( Arrays.asList( rows.get( 0 ), rows.get( 2 ) ),
+                groups.get( UNIFIED.forRow( new MapRow( rows.get( 0 ) ) ) ) );
+        assertEquals( Arrays.asList( rows.get( 1 ), rows.get( 4 ) ),
+                groups.get( UNIFIED.forRow( new MapRow( rows.get( 1 ) ) ) ) );
+        assertEquals( Collections.singletonList( rows.get( 3 ) ),
+                groups.get( UNIFIED.forRow( new MapRow( rows.get( 3 ) ) ) ) );
+    }
+
+    @Test
+    public void countsRecordsOfTheVariantRowsWereLaunchedWith() {
+        FlightPlan witness = UNIFIED.forRow( new MapRow( row( "1", "WITNESS" ) ) );
+        Map<String, Long> expected = new HashMap<>();
+        witness.getEntities().forEach( entity -> expected.merge( entity.getEntitySet(), 3L, Long::sum ) );
+        witness.getAssociations().forEach( association -> expected.merge( association.getEntitySet(), 3L, Long::sum ) );
+        Set<String> entitySets = new HashSet<>( expected.keySet() );
+        UNIFIED.getEntities().forEach( entity -> entitySets.add( entity.getEntitySet() ) );
+        assertTrue( "Some entity sets are left out", entitySets.size() > expected.size() );
+
+        Map<String, Long> before = recordCounts( entitySets );
+        witness.countRecords( 3 );
+        Map<String, Long> after = recordCounts( entitySets );
+
+        for ( String entitySet : entitySets ) {
+            assertEquals( entitySet,
+                    expected.getOrDefault( entitySet, 0L ).longValue(),
+                    after.get( entitySet ) - before.get( entitySet ) );
+        }
+    }
+
+    private static Map<String, Long> recordCounts( Set<String> entitySets ) {
+        Map<String, Long> counts = new HashMap<>();
+        entitySets.forEach( entitySet -> counts.put( entitySet,
+                PipelineMetrics.get().counter( "records." + entitySet ).sum() ) );
+        return counts;
+    }
+
+    @Test
+    public void producesTheSameRecordsForCompactRows() {
+        Map<String, String> row = row( "1", "SUSPECT" );
+        row.put( "DOB", "01/02/1980" );
+        row.put( "Height", "70" );
+        List<String> header = new ArrayList<>( row.keySet() );
+        RowSchema schema = Cambridge.ROW_LAYOUT.bind( header.toArray( new String[ 0 ] ) );
+        CompactRow compact = schema.newRow( header.stream().map( row::get ).toArray( String[]::new ) );
+        new AddressFields().apply( compact );
+        new AddressFields().apply( row );
+
+        assertEquals( evaluate( UNIFIED, row ), evaluate( UNIFIED, compact ) );
+        assertEquals( Cambridge.height( new MapRow( row ) ), Cambridge.height( new MapRow( compact ) ) );
+    }
+
+    @Test
+    public void keepsFlightsWithoutConditionsAsTheyAre() {
+        FlightPlan suspects = Cambridge.suspectsFlight();
+        assertFalse( suspects.isConditional() );
+        assertSame( suspects, suspects.forRow( new MapRow( row( "1", "SUSPECT" ) ) ) );
+    }
+
+    @Test
+    public void keepsTheSyncOfTheFlight() {
+        FlightPlan inSync = UNIFIED.inCurrentSync();
+        assertFalse( UNIFIED.isInCurrentSync() );
+        assertTrue( inSync.isInCurrentSync() );
+        assertTrue( inSync.forRow( new MapRow( row( "1", "WITNESS" ) ) ).isInCurrentSync() );
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlightSchedulerTest {
+    private static FlightPlan flight( String name ) {
+        return FlightPlan.newFlight( name )
+                .createEntities()
+                .addEntity( "row" )
+                .to( "TestRows" )
+                .addProperty( "general.id", "id" )
+                .endEntity()
+                .endEntities()
+                .createAssociations()
+                .endAssociations()
+                .done();
+    }
+
+    @Test
+    public void launchesDependentsOnceTheOwnerStartedWriting() throws InterruptedException {
+        List<String> events = new CopyOnWriteArrayList<>();
+        CountDownLatch dependentLaunched = new CountDownLatch( 1 );
+        FlightLauncher launcher = ( flight, payload, progress ) -> {
+            if ( flight.getName().equals( "owner" ) ) {
+                events.add( "owner writing" );
+                progress.started();
+                // The owner only completes once the dependent runs alongside it.
+                if ( !dependentLaunched.await( 10, TimeUnit.SECONDS ) ) {
+                    throw new IllegalStateException( "Dependent was not launched while the owner was writing." );
+                }
+                events.add( "owner completed" );
+            } else {
+                events.add( flight.getName() + " launched" );
+                dependentLaunched.countDown();
+            }
+        };
+
+        new FlightScheduler( launcher )
+                .add( "owner", flight( "owner" ), Stream::empty )
+                .add( "dependent", flight( "dependent" ), Stream::empty, "owner" )
+                .run();
+
+        assertEquals( "owner writing", events.get( 0 ) );
+        assertEquals( "dependent launched", events.get( 1 ) );
+        assertEquals( "owner completed", events.get( 2 ) );
+    }
+
+    @Test
+    public void treatsCompletionAsStartedWhenTheLauncherDoesNotSignal() throws InterruptedException {
+        List<String> launched = new CopyOnWriteArrayList<>();
+        FlightLauncher launcher = ( flight, payload, progress ) -> {
+            TimeUnit.MILLISECONDS.sleep( flight.getName().equals( "owner" ) ? 100 : 0 );
+            launched.add( flight.getName() );
+        };
+
+        new FlightScheduler( launcher )
+                .add( "owner", flight( "owner" ), Stream::empty )
+                .add( "dependent", flight( "dependent" ), Stream::empty, "owner" )
+                .run();
+
+        assertEquals( "owner", launched.get( 0 ) );
+        assertEquals( "dependent", launched.get( 1 ) );
+    }
+
+    @Test
+    public void skipsDependentsOfAFlightThatFailedBeforeStarting() throws InterruptedException {
+        List<String> launched = new CopyOnWriteArrayList<>();
+        FlightLauncher launcher = ( flight, payload, progress ) -> {
+            launched.add( flight.getName() );
+            if ( flight.getName().equals( "owner" ) ) {
+                throw new IllegalStateException( "Owner failed." );
+            }
+        };
+
+        try {
+            new FlightScheduler( launcher )
+                    .add( "owner", flight( "owner" ), Stream::empty )
+                    .add( "dependent", flight( "dependent" ), Stream::empty, "owner" )
+                    .add( "independent", flight( "independent" ), Stream::empty )
+                    .run();
+            fail( "Expected the run to fail." );
+        } catch ( IllegalStateException e ) {
+            assertTrue( launched.contains( "owner" ) );
+            assertTrue( launched.contains( "independent" ) );
+            assertFalse( launched.contains( "dependent" ) );
+        }
+    }
+
+    @Test
+    public void launchesDependentsOfFlightsCompletedEarlier() throws InterruptedException {
+        List<String> launched = new CopyOnWriteArrayList<>();
+        List<String> completed = new CopyOnWriteArrayList<>();
+
+        new FlightScheduler( ( flight, payload, progress ) -> launched.add( flight.getName() ) )
+                .addCompleted( "owner" )
+                .add( "dependent", flight( "dependent" ), Stream::empty, "owner" )
+                .onCompleted( completed::add )
+                .run();
+
+        assertEquals( 1, launched.size() );
+        assertEquals( "dependent", launched.get( 0 ) );
+        assertEquals( 1, completed.size() );
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Uploads batches through {@link HttpIngestLauncher} to a {@link LocalIngestServer} on a free local port.
+ */
+public class HttpIngestLauncherTest {
+    private static final FlightPlan FLIGHT = FlightPlan.newFlight( "test" )
+            .createEntities()
+            .addEntity( "row" )
+            .to( "TestRows" )
+            .addProperty( "general.id", "id" )
+            .endEntity()
+            .endEntities()
+            .createAssociations()
+            .endAssociations()
+            .done();
+
+    private LocalIngestServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new LocalIngestServer( 0, 0, 0, 0.2 ).start();
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/ingest";
+    }
+
+    private static List<Map<String, String>> rows( int count ) {
+        List<Map<String, String>> rows = new ArrayList<>( count );
+        for ( int i = 0; i < count; ++i ) {
+            rows.add( ImmutableMap.of( "id", Integer.toString( i ), "value", "row number " + i ) );
+        }
+        return rows;
+    }
+
+    @Test
+    public void postsEveryRowOnceDespiteErrors() throws InterruptedException {
+        List<Map<String, String>> rows = rows( 5000 );
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize( 4 << 10, 1 << 10, 16 << 10, 1, TimeUnit.SECONDS );
+        StartedProgress progress = new StartedProgress();
+
+        try ( AdaptiveBatchLauncher launcher = new AdaptiveBatchLauncher( new HttpIngestLauncher( url() ),
+                batchSize,
+                50,
+                2,
+                4,
+                false ) ) {
+            launcher.launch( FLIGHT, rows::stream, progress );
+        }
+
+        assertEquals( rows.size(), server.getRows() );
+        assertTrue( "Batches were cut", server.getRequests() - server.getFailed() > 1 );
+        assertTrue( "Expected injected failures", server.getFailed() > 0 );
+        assertTrue( progress.started );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void failsOnErrorStatus() throws IOException {
+        try ( LocalIngestServer failing = new LocalIngestServer( 0, 0, 0, 1 ).start() ) {
+            new HttpIngestLauncher( "http://localhost:" + failing.getAddress().getPort() )
+                    .launch( FLIGHT, () -> rows( 10 ).stream(), FlightProgress.NONE );
+        }
+    }
+
+    private static class StartedProgress implements FlightProgress {
+        private volatile boolean started;
+
+        @Override
+        public long rowsRead() {
+            return 0;
+        }
+
+        @Override
+        public void acknowledge( long rows ) {
+        }
+
+        @Override
+        public void started() {
+            started = true;
+        }
+    }
+}
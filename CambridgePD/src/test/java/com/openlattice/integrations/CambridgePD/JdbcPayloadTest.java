@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link JdbcPayload} against an in-memory H2 database. The connection is wrapped so the test can see how the
+ * payload drives the statement and the result set.
+ */
+public class JdbcPayloadTest {
+    private static final String URL  = "jdbc:h2:mem:jdbc-payload;DB_CLOSE_DELAY=-1";
+    private static final String SQL  = "SELECT IncNum, PersonID, Street FROM incidents ORDER BY IncNum";
+    private static final int    ROWS = 1000;
+
+    private static final RowLayout LAYOUT = new RowLayout(
+            Collections.singletonList( AddressFields.PERSON_ADDRESS ),
+            Collections.singletonList( "STREET" ) );
+
+    private Connection   database;
+    private List<String> calls;
+    private int          rowsFetched;
+
+    @Before
+    public void createIncidents() throws SQLException {
+        database = DriverManager.getConnection( URL );
+        calls = new ArrayList<>();
+        rowsFetched = 0;
+        try ( Statement statement = database.createStatement() ) {
+            statement.execute( "CREATE TABLE incidents ( IncNum INT, PersonID VARCHAR(16), Street VARCHAR(64) )" );
+        }
+        try ( PreparedStatement insert = database.prepareStatement( "INSERT INTO incidents VALUES ( ?, ?, ? )" ) ) {
+            for ( int i = 0; i < ROWS; ++i ) {
+                insert.setInt( 1, i );
+                insert.setString( 2, "P" + ( i % 100 ) );
+                insert.setString( 3, i % 10 == 0 ? null : "MASS AVE" );
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    @After
+    public void dropIncidents() throws SQLException {
+        try ( Statement statement = database.createStatement() ) {
+            statement.execute( "DROP TABLE incidents" );
+        }
+        database.close();
+    }
+
+    private JdbcPayload payload( int fetchSize ) {
+        return new JdbcPayload( () -> wrap( DriverManager.getConnection( URL ) ), SQL, LAYOUT, fetchSize );
+    }
+
+    /**
+     * Records the calls made on the connection, the statement and the result set, and counts the rows fetched.
+     */
+    @SuppressWarnings( "unchecked" )
+    private <T> T wrap( T target, Class<T> type ) {
+        InvocationHandler handler = ( proxy, method, args ) -> {
+            String name = method.getName();
+            if ( name.equals( "next" ) ) {
+                ++rowsFetched;
+            } else if ( !name.startsWith( "get" ) ) {
+                calls.add( type.getSimpleName() + "." + name + ( args == null ? "" : Arrays.toString( args ) ) );
+            }
+            Object result;
+            try {
+                result = method.invoke( target, args );
+            } catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+            if ( result instanceof Statement ) {
+                return wrap( (Statement) result, Statement.class );
+            }
+            if ( result instanceof ResultSet ) {
+                return wrap( (ResultSet) result, ResultSet.class );
+            }
+            return result;
+        };
+        return (T) Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type }, handler );
+    }
+
+    private Connection wrap( Connection connection ) {
+        return wrap( connection, Connection.class );
+    }
+
+    @Test
+    public void streamsEveryRowAsCompactRows() {
+        List<Map<String, String>> rows;
+        try ( Stream<Map<String, String>> payload = payload( 100 ).getPayload() ) {
+            rows = payload.collect( Collectors.toList() );
+        }
+
+        assertEquals( ROWS, rows.size() );
+        for ( int i = 0; i < ROWS; ++i ) {
+            Map<String, String> row = rows.get( i );
+            assertTrue( row instanceof CompactRow );
+            assertEquals( Integer.toString( i ), row.get( "INCNUM" ) );
+            assertEquals( "P" + ( i % 100 ), row.get( "PERSONID" ) );
+            assertEquals( "SQL nulls become empty strings", i % 10 == 0 ? "" : "MASS AVE", row.get( "STREET" ) );
+            assertNull( row.put( AddressFields.PERSON_ADDRESS, "MASS AVE, CAMBRIDGE" ) );
+        }
+    }
+
+    @Test
+    public void usesAForwardOnlyReadOnlyStatementWithTheFetchSize() {
+        try ( Stream<Map<String, String>> payload = payload( 250 ).getPayload() ) {
+            payload.count();
+        }
+
+        assertEquals( Arrays.asList(
+                "Connection.setAutoCommit[false]",
+                "Connection.createStatement[" + ResultSet.TYPE_FORWARD_ONLY + ", " + ResultSet.CONCUR_READ_ONLY + "]",
+                "Statement.setFetchSize[250]",
+                "Statement.executeQuery[" + SQL + "]",
+                "ResultSet.close",
+                "Statement.close",
+                "Connection.close" ), calls );
+        assertEquals( ROWS + 1, rowsFetched );
+    }
+
+    @Test
+    public void pullsRowsOnlyAsTheyAreConsumed() {
+        try ( Stream<Map<String, String>> payload = payload( 100 ).getPayload() ) {
+            Iterator<Map<String, String>> rows = payload.iterator();
+            assertEquals( 0, rowsFetched );
+            assertEquals( "0", rows.next().get( "INCNUM" ) );
+            assertEquals( "1", rows.next().get( "INCNUM" ) );
+            assertEquals( 2, rowsFetched );
+            assertFalse( calls.contains( "Connection.close" ) );
+        }
+        assertTrue( "Closing the stream early closes the connection", calls.contains( "Connection.close" ) );
+    }
+
+    @Test
+    public void formatsTemporalColumnsLikeTheCsvExport() throws SQLException {
+        try ( Statement statement = database.createStatement() ) {
+            statement.execute( "CREATE TABLE reports "
+                    + "( IncNum INT, DTReported TIMESTAMP, DOB TIMESTAMP, Closed DATE )" );
+            statement.execute( "INSERT INTO reports VALUES "
+                    + "( 1, TIMESTAMP '2018-03-04 05:06:07.5', TIMESTAMP '1980-01-02 00:00:00', DATE '2018-03-05' ), "
+                    + "( 2, NULL, NULL, NULL )" );
+        }
+        List<Map<String, String>> rows;
+        try ( Stream<Map<String, String>> payload = new JdbcPayload( () -> DriverManager.getConnection( URL ),
+                "SELECT IncNum, DTReported, DOB, Closed FROM reports ORDER BY IncNum",
+                LAYOUT,
+                100,
+                Collections.singletonMap( "DOB", JdbcPayload.DATE_PATTERN ) ).getPayload() ) {
+            rows = payload.collect( Collectors.toList() );
+        } finally {
+            try ( Statement statement = database.createStatement() ) {
+                statement.execute( "DROP TABLE reports" );
+            }
+        }
+
+        Map<String, String> row = rows.get( 0 );
+        assertEquals( "3/4/18 5:06", row.get( "DTREPORTED" ) );
+        assertEquals( "Formatted by its label", "01/02/1980", row.get( "DOB" ) );
+        assertEquals( "03/05/2018", row.get( "CLOSED" ) );
+        assertEquals( "Read by the watermark",
+                LocalDateTime.of( 2018, 3, 4, 5, 6 ),
+                LocalDateTime.parse( row.get( "DTREPORTED" ), Watermark.formatter( JdbcPayload.TIMESTAMP_PATTERN ) ) );
+        assertEquals( "", rows.get( 1 ).get( "DTREPORTED" ) );
+        assertEquals( "", rows.get( 1 ).get( "DOB" ) );
+    }
+
+    @Test
+    public void asksSqlServerForAServerSideCursor() {
+        assertEquals( "jdbc:sqlserver://db:1433;databaseName=cpd;selectMethod=cursor",
+                JdbcPayload.cursorUrl( "jdbc:sqlserver://db:1433;databaseName=cpd" ) );
+        assertEquals( "jdbc:sqlserver://db:1433;selectMethod=direct;databaseName=cpd",
+                JdbcPayload.cursorUrl( "jdbc:sqlserver://db:1433;selectMethod=direct;databaseName=cpd" ) );
+        assertEquals( URL, JdbcPayload.cursorUrl( URL ) );
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedCsvPayloadTest {
+    private static final RowLayout layout = new RowLayout( Collections.emptyList(), Collections.emptyList() );
+
+    private Path                      file;
+    private List<Map<String, String>> expected;
+
+    /**
+     * Writes records whose values have commas, doubled quotes and line breaks inside quotes, so region and chunk
+     * boundaries fall inside quoted values.
+     */
+    @Before
+    public void writeFile() throws IOException {
+        Random random = new Random( 42 );
+        String[] values = { "plain", "", "\"a, b\"", "\"say \"\"hi\"\"\"", "\"two\nlines\"", "\"\r\n\"", "\"\"\"\"" };
+        String[] parsed = { "plain", "", "a, b", "say \"hi\"", "two\nlines", "\r\n", "\"" };
+        StringBuilder csv = new StringBuilder( "PersonID,Name,Note\r\n" );
+        expected = new ArrayList<>();
+        for ( int i = 0; i < 500; ++i ) {
+            int name = random.nextInt( values.length );
+            int note = random.nextInt( values.length );
+            csv.append( i ).append( ',' ).append( values[ name ] ).append( ',' ).append( values[ note ] );
+            csv.append( random.nextBoolean() ? "\r\n" : "\n" );
+            Map<String, String> row = new LinkedHashMap<>();
+            row.put( "PersonID", Integer.toString( i ) );
+            row.put( "Name", parsed[ name ] );
+            row.put( "Note", parsed[ note ] );
+            expected.add( row );
+        }
+        file = Files.createTempFile( "mapped-csv", ".csv" );
+        Files.write( file, csv.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.delete( file );
+    }
+
+    private List<Map<String, String>> parse( int chunkSize, boolean ordered ) {
+        try ( Stream<Map<String, String>> rows = new MappedCsvPayload( file, layout, 3, chunkSize, ordered )
+                .getPayload() ) {
+            return rows.map( LinkedHashMap::new ).collect( Collectors.toList() );
+        }
+    }
+
+    @Test
+    public void findsRecordBoundariesForAnyChunkSize() {
+        for ( int chunkSize : new int[] { 1, 2, 5, 13, 64, 1000, 1 << 20 } ) {
+            assertEquals( "Chunks of " + chunkSize, expected, parse( chunkSize, true ) );
+        }
+    }
+
+    @Test
+    public void boundsTheReadAheadByBytesRatherThanThreads() {
+        int chunkSize = 16 << 20;
+        assertEquals( 4, MappedCsvPayload.readAhead( 32, chunkSize ) );
+        assertEquals( 4, MappedCsvPayload.readAhead( 256, chunkSize ) );
+        assertEquals( 2, MappedCsvPayload.readAhead( 1, chunkSize ) );
+        assertEquals( 1, MappedCsvPayload.readAhead( 32, 1 << 30 ) );
+    }
+
+    @Test
+    public void emitsEveryRowWhenUnordered() {
+        Comparator<Map<String, String>> byId = Comparator.comparingInt( row -> Integer.parseInt( row.get( "PersonID" ) ) );
+        List<Map<String, String>> rows = parse( 37, false );
+        rows.sort( byId );
+        assertEquals( expected, rows );
+    }
+}
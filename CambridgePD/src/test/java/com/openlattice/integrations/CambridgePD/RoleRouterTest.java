@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.openlattice.shuttle.payload.Payload;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RoleRouterTest {
+    private static final int ROWS = 20000;
+
+    /**
+     * Rows alternating between two routes, produced at about 10000 rows per second.
+     */
+    private static Payload source( String even, String odd ) {
+        return () -> IntStream.range( 0, ROWS ).mapToObj( i -> {
+            if ( i % 100 == 0 ) {
+                Uninterruptibles.sleepUninterruptibly( 10, TimeUnit.MILLISECONDS );
+            }
+            return ImmutableMap.of( "n", Integer.toString( i ), "route", i % 2 == 0 ? even : odd );
+        } );
+    }
+
+    private static List<String> expected( int parity ) {
+        return IntStream.range( 0, ROWS )
+                .filter( i -> i % 2 == parity )
+                .mapToObj( Integer::toString )
+                .collect( Collectors.toList() );
+    }
+
+    private static Future<List<String>> consume( ExecutorService executor, Payload route, long delayMillis ) {
+        return executor.submit( () -> {
+            TimeUnit.MILLISECONDS.sleep( delayMillis );
+            try ( Stream<Map<String, String>> rows = route.getPayload() ) {
+                return rows.map( row -> row.get( "n" ) ).collect( Collectors.toList() );
+            }
+        } );
+    }
+
+    @Test
+    public void keepsEachRouteInSourceOrder() throws Exception {
+        RoleRouter router = new RoleRouter( source( "evenA", "oddA" ),
+                row -> row.get( "route" ),
+                Arrays.asList( "evenA", "oddA" ),
+                16 );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            Future<List<String>> even = consume( executor, router.route( "evenA" ), 0 );
+            Future<List<String>> odd = consume( executor, router.route( "oddA" ), 0 );
+            assertEquals( expected( 0 ), even.get( 30, TimeUnit.SECONDS ) );
+            assertEquals( expected( 1 ), odd.get( 30, TimeUnit.SECONDS ) );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void spillsARouteOnlyWhileItIsBehind() throws Exception {
+        RoleRouter router = new RoleRouter( source( "fastB", "slowB" ),
+                row -> row.get( "route" ),
+                Arrays.asList( "fastB", "slowB" ),
+                16 );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            Future<List<String>> fast = consume( executor, router.route( "fastB" ), 0 );
+            Future<List<String>> slow = consume( executor, router.route( "slowB" ), 600 );
+            assertEquals( expected( 0 ), fast.get( 30, TimeUnit.SECONDS ) );
+            assertEquals( expected( 1 ), slow.get( 30, TimeUnit.SECONDS ) );
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long spilled = PipelineMetrics.get().counter( "route.slowB.spilled" ).sum();
+        assertTrue( "The slow route spilled while it was not consumed", spilled > 0 );
+        assertTrue( "The slow route went back to memory once it caught up, spilled " + spilled,
+                spilled < ROWS / 4 );
+        assertEquals( 0, PipelineMetrics.get().counter( "route.fastB.spilled" ).sum() );
+    }
+
+    @Test
+    public void dropsTheRowsOfDiscardedRoutes() throws Exception {
+        RoleRouter router = new RoleRouter( source( "keptC", "discardedC" ),
+                row -> row.get( "route" ),
+                Arrays.asList( "keptC", "discardedC" ),
+                16 );
+        router.discard( "discardedC" );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals( expected( 0 ), consume( executor, router.route( "keptC" ), 0 ).get( 30, TimeUnit.SECONDS ) );
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals( ROWS / 2, PipelineMetrics.get().counter( "route.discardedC.dropped" ).sum() );
+        assertEquals( 0, PipelineMetrics.get().counter( "route.discardedC.spilled" ).sum() );
+    }
+
+    @Test
+    public void stopsReadingOnceNoRouteIsRead() throws Exception {
+        RoleRouter router = new RoleRouter( source( "closedD", "discardedD" ),
+                row -> row.get( "route" ),
+                Arrays.asList( "closedD", "discardedD" ),
+                16 );
+        router.discard( "discardedD" );
+        try ( Stream<Map<String, String>> rows = router.route( "closedD" ).getPayload() ) {
+            assertEquals( 10, rows.limit( 10 ).count() );
+        }
+
+        TimeUnit.SECONDS.sleep( 1 );
+        long routed = PipelineMetrics.get().counter( "route.closedD.rows" ).sum();
+        assertTrue( "Routing stopped when the last route was closed, routed " + routed, routed < ROWS / 4 );
+        assertEquals( 0, PipelineMetrics.get().counter( "route.closedD.spilled" ).sum() );
+    }
+}
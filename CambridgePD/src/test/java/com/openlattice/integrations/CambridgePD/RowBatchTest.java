@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class RowBatchTest {
+    private static final RowLayout layout = new RowLayout( Collections.singletonList( "derived.Street" ),
+            Collections.singletonList( "Role" ) );
+
+    @Test
+    public void sizesTheUncompressedBodyAndHoldsItGzipped() throws IOException {
+        RowBatch batch = new RowBatch();
+        for ( int i = 0; i < 1000; ++i ) {
+            Map<String, String> row = new LinkedHashMap<>();
+            row.put( "IncNum", Integer.toString( i ) );
+            row.put( "Name", "Doe, \"J\"" );
+            batch.add( row );
+        }
+        long bytes = batch.getBytes();
+        byte[] compressed = batch.finish().getCompressed();
+
+        String body = gunzip( compressed );
+        assertEquals( bytes, body.getBytes( StandardCharsets.UTF_8 ).length );
+        assertTrue( body.startsWith( "{\"IncNum\":\"0\",\"Name\":\"Doe, \\\"J\\\"\"}\n" ) );
+        assertEquals( 1000, body.split( "\n" ).length );
+        assertTrue( compressed.length < bytes / 4 );
+    }
+
+    @Test
+    public void decodesCompactRowsOfOneSchemaAsCompactRows() {
+        RowSchema schema = layout.bind( new String[] { "PersonID", "Role", "IncNum" } );
+        CompactRow first = schema.newRow( new String[] { "7", "SUSPECT", "" } );
+        CompactRow second = schema.newRow( new String[] { "8", "SUSPECT", "12" } );
+        first.put( "derived.Street", "1 Main St" );
+
+        RowBatch batch = new RowBatch();
+        batch.add( first );
+        batch.add( second );
+        List<Map<String, String>> rows = batch.finish().getPayload().collect( Collectors.toList() );
+
+        assertEquals( 2, batch.size() );
+        assertEquals( first, rows.get( 0 ) );
+        assertEquals( second, rows.get( 1 ) );
+        assertSame( schema, ( (CompactRow) rows.get( 0 ) ).getSchema() );
+        assertSame( "Dictionary values are shared again", first.get( "Role" ), rows.get( 1 ).get( "Role" ) );
+    }
+
+    @Test
+    public void decodesMixedRowsAsMaps() {
+        RowSchema schema = layout.bind( new String[] { "PersonID" } );
+        CompactRow compact = schema.newRow( new String[] { "7" } );
+        Map<String, String> plain = Collections.singletonMap( "PersonID", "8" );
+
+        RowBatch batch = new RowBatch();
+        batch.add( compact );
+        batch.add( plain );
+        List<Map<String, String>> rows = batch.finish().getPayload().collect( Collectors.toList() );
+
+        assertEquals( compact, rows.get( 0 ) );
+        assertEquals( plain, rows.get( 1 ) );
+        assertFalse( rows.get( 0 ) instanceof CompactRow );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void rejectsRowsOnceFinished() {
+        RowBatch batch = new RowBatch();
+        batch.finish();
+        batch.add( Collections.singletonMap( "PersonID", "7" ) );
+    }
+
+    private static String gunzip( byte[] compressed ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( InputStream in = new GZIPInputStream( new ByteArrayInputStream( compressed ) ) ) {
+            byte[] buffer = new byte[ 4096 ];
+            for ( int read; ( read = in.read( buffer ) ) > 0; ) {
+                out.write( buffer, 0, read );
+            }
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RowCodecTest {
+    private static final RowLayout layout = new RowLayout( Collections.singletonList( "derived.Street" ),
+            Collections.singletonList( "Role" ) );
+
+    @Test
+    public void restoresCompactRowsWithTheirSchema() throws IOException {
+        RowSchema schema = layout.bind( new String[] { "PersonID", "Role", "IncNum" } );
+        CompactRow written = schema.newRow( new String[] { "7", "SUSPECT", "" } );
+        CompactRow other = schema.newRow( new String[] { "8", "SUSPECT", "12" } );
+        written.put( "derived.Street", "1 Main St" );
+        Map<String, String> plain = new LinkedHashMap<>();
+        plain.put( "PersonID", "9" );
+
+        RowCodec codec = new RowCodec();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( DataOutputStream out = new DataOutputStream( bytes ) ) {
+            codec.write( out, written );
+            codec.write( out, plain );
+            RowCodec.writeEnd( out );
+        }
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        Map<String, String> restored = codec.read( in );
+        assertTrue( restored instanceof CompactRow );
+        assertSame( schema, ( (CompactRow) restored ).getSchema() );
+        assertEquals( written, restored );
+        assertEquals( "", restored.get( "IncNum" ) );
+        assertSame( "Dictionary values are shared again", other.get( "Role" ), restored.get( "Role" ) );
+        assertEquals( plain, codec.read( in ) );
+        assertNull( codec.read( in ) );
+    }
+
+    @Test
+    public void resolvesColumnsPerSchema() {
+        RowSchema first = layout.bind( new String[] { "PersonID", "Role" } );
+        RowSchema second = layout.bind( new String[] { "Role", "Extra", "PersonID" } );
+        RowColumn role = new RowColumn( "Role" );
+        RowColumn street = new RowColumn( "derived.Street" );
+        RowColumn missing = new RowColumn( "Missing" );
+
+        for ( RowSchema schema : Arrays.asList( first, second, first ) ) {
+            CompactRow row = schema.indexOf( "Extra" ) < 0
+                    ? schema.newRow( new String[] { "7", "SUSPECT" } )
+                    : schema.newRow( new String[] { "SUSPECT", "x", "7" } );
+            assertEquals( "SUSPECT", role.get( row ) );
+            assertEquals( "SUSPECT", role.get( new MapRow( row ) ) );
+            assertNull( missing.get( row ) );
+            street.put( row, "1 Main St" );
+            assertEquals( "1 Main St", row.get( "derived.Street" ) );
+        }
+
+        Map<String, String> plain = new LinkedHashMap<>();
+        street.put( plain, "2 Main St" );
+        assertEquals( "2 Main St", street.get( plain ) );
+    }
+}
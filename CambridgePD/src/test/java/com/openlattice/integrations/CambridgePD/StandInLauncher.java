@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+
+package com.openlattice.integrations.CambridgePD;
+
+import com.openlattice.shuttle.payload.Payload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Local stand-in for the Shuttle upload of one batch. It takes a latency per call and per megabyte, and fails a
+ * fraction of the calls after reading the batch, like an upload that broke off. Rows of successful calls are kept in
+ * the order they arrived. Calls may run concurrently, and the most calls seen at once is recorded.
+ */
+class StandInLauncher implements FlightLauncher {
+    private final long                      latencyMillis;
+    private final long                      millisPerMb;
+    private final double                    errorRate;
+    private final Random                    random;
+    private final List<Map<String, String>> rows         = new ArrayList<>();
+    private final AtomicInteger             running      = new AtomicInteger();
+    private final AtomicInteger             maxRunning   = new AtomicInteger();
+    private       int                       failAfter    = Integer.MAX_VALUE;
+    private       int                       launches;
+    private       int                       failures;
+    private       int                       syncsStarted;
+
+    StandInLauncher( long latencyMillis, long millisPerMb, double errorRate, long seed ) {
+        this.latencyMillis = latencyMillis;
+        this.millisPerMb = millisPerMb;
+        this.errorRate = errorRate;
+        this.random = new Random( seed );
+    }
+
+    /**
+     * Fails every call after the given number of successful ones.
+     */
+    StandInLauncher failAfter( int successes ) {
+        this.failAfter = successes;
+        return this;
+    }
+
+    @Override
+    public void launch( FlightPlan flight, Payload payload, FlightProgress progress ) throws InterruptedException {
+        List<Map<String, String>> batch = payload.getPayload().collect( Collectors.toList() );
+        long bytes = payload instanceof RowBatch ? ( (RowBatch) payload ).getCompressed().length : 0;
+        boolean fail;
+        synchronized ( this ) {
+            fail = launches++ - failures >= failAfter || random.nextDouble() < errorRate;
+        }
+        maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+        try {
+            TimeUnit.MILLISECONDS.sleep( latencyMillis + millisPerMb * bytes / ( 1 << 20 ) );
+        } finally {
+            running.decrementAndGet();
+        }
+        synchronized ( this ) {
+            if ( fail ) {
+                ++failures;
+                throw new IllegalStateException( "Stand-in rejected a batch of " + batch.size() + " rows." );
+            }
+            if ( !flight.getEntities().get( 0 ).useCurrentSync() ) {
+                ++syncsStarted;
+            }
+            rows.addAll( batch );
+        }
+    }
+
+    synchronized List<Map<String, String>> getRows() {
+        return rows;
+    }
+
+    synchronized int getLaunches() {
+        return launches;
+    }
+
+    synchronized int getFailures() {
+        return failures;
+    }
+
+    synchronized int getSyncsStarted() {
+        return syncsStarted;
+    }
+
+    int getMaxRunning() {
+        return maxRunning.get();
+    }
+}